@@ -0,0 +1,97 @@
+/* class Bench
+ * A small benchmark harness: runs an operation in batches until the
+ * timings are stable, then reports the time and the heap allocated per
+ * operation
+ *
+ * (The ray tracer classes live in the default package, which JMH cannot
+ * generate benchmarks for, so this does the same job by hand: warmup
+ * iterations for the JIT, a result sink so no work is optimized away,
+ * and allocation counting through the thread MX bean.)
+ */
+import java.lang.management.ManagementFactory;
+
+abstract class Bench
+{
+    /** name of the benchmark, as matched by the command line filter */
+    String name;
+
+    // Results of the last call to measure()
+    double nsPerOp     = 0;
+    double bytesPerOp  = 0;
+    double errorPerOp  = 0;
+
+    // Results are accumulated here, so the JIT cannot drop the work
+    static volatile double sink = 0;
+
+    //------------------------------------------------------------------------
+
+    public Bench(String newName)
+    {
+        name = newName;
+    }
+
+    /** perform the operation ops times, returning any value derived
+     *  from the results
+     */
+    abstract double run(int ops);
+
+    //------------------------------------------------------------------------
+
+    /** run warmup and measured iterations of at least iterationMs each */
+    public void measure(int warmups, int iterations, long iterationMs)
+    {
+        // Find a batch size that takes about iterationMs
+        int ops = 1;
+        while (true) {
+            long start = System.nanoTime();
+            sink += run(ops);
+            long elapsed = System.nanoTime() - start;
+
+            if (elapsed >= iterationMs * 1000000L || ops >= (1 << 30))
+              break;
+            ops *= 2;
+        }
+
+        for (int i = 0; i < warmups; i++)
+          sink += run(ops);
+
+        double[] samples = new double[iterations];
+        long allocated = 0;
+        for (int i = 0; i < iterations; i++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            sink += run(ops);
+            samples[i] = (double)(System.nanoTime() - start) / ops;
+            allocated += allocatedBytes() - bytes;
+        }
+
+        // Mean and standard deviation over the iterations
+        double sum = 0, sumSq = 0;
+        for (int i = 0; i < iterations; i++) {
+            sum   += samples[i];
+            sumSq += samples[i] * samples[i];
+        }
+        nsPerOp    = sum / iterations;
+        errorPerOp = Math.sqrt(Math.max(0, sumSq / iterations - nsPerOp * nsPerOp));
+        bytesPerOp = (double)allocated / ((double)ops * iterations);
+    }
+
+    /** bytes allocated by this thread so far (-1 if not supported) */
+    static long allocatedBytes()
+    {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+
+        if (bean instanceof com.sun.management.ThreadMXBean)
+          return ((com.sun.management.ThreadMXBean)bean)
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+
+        return -1;
+    }
+
+    public String toString()
+    {
+        return String.format("%-44s %16.1f ns/op  +- %14.1f  %14.1f B/op",
+                             name, nsPerOp, errorPerOp, bytesPerOp);
+    }
+}
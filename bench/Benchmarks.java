@@ -0,0 +1,394 @@
+/* class Benchmarks
+ * Performance regression suite for the ray tracer, at three levels:
+ *  - shape.*   : ray-primitive intersection (Shape.hit), with and without
+ *                computing all the intersection fields (shape.mesh is a
+ *                sphere of 64k triangles)
+ *  - camera.*, light.*, material.*, texture.* : per-sample building
+ *                blocks
+ *  - render.*  : full frames of the bundled scenes at a fixed resolution
+ *                (render.*.packets traces the primary rays in 8x8 packets)
+ *  - order.*   : the same frames traced in each PixelOrder
+ *
+ * Usage: java Benchmarks [-warmup <n>] [-iterations <n>] [-time <ms>]
+ *                        [-scenes <dir>] [name filters...]
+ *
+ * Run it from the directory holding the scene files (or use -scenes).
+ */
+import java.io.*;
+import java.util.*;
+import javax.vecmath.*;
+
+class Benchmarks
+{
+    // Scenes rendered by the render.* benchmarks, and their resolution
+    static final String[] sceneNames = { "easy", "hard", "hardchecker",
+                                         "slide" };
+    static final int renderWidth  = 256;
+    static final int renderHeight = 256;
+
+    // Number of distinct rays the per-sample benchmarks cycle through
+    static final int rayCount = 256;
+
+    static String sceneDir = ".";
+
+    public static void main(String arguments[])
+        throws Exception
+    {
+        int warmups    = 3;
+        int iterations = 5;
+        long time      = 200;
+        Vector<String> filters = new Vector<String>();
+
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i].compareTo("-warmup") == 0) {
+                warmups = Integer.parseInt(arguments[++i]);
+            } else if (arguments[i].compareTo("-iterations") == 0) {
+                iterations = Integer.parseInt(arguments[++i]);
+            } else if (arguments[i].compareTo("-time") == 0) {
+                time = Long.parseLong(arguments[++i]);
+            } else if (arguments[i].compareTo("-scenes") == 0) {
+                sceneDir = arguments[++i];
+            } else if (arguments[i].charAt(0) == '-') {
+                printUsage();
+                System.exit(0);
+            } else {
+                filters.addElement(arguments[i]);
+            }
+        }
+
+        // Keep the console quiet while scenes are set up
+        Trace.verbose = false;
+
+        Vector<Bench> benches = new Vector<Bench>();
+        addShapeBenches(benches);
+        addSampleBenches(benches);
+        addRenderBenches(benches);
+        addOrderBenches(benches);
+
+        for (Bench b : benches) {
+            if (!matches(b.name, filters))
+              continue;
+
+            b.measure(warmups, iterations, time);
+            System.out.println(b);
+        }
+    }
+
+    private static boolean matches(String name, Vector<String> filters)
+    {
+        if (filters.isEmpty())
+          return true;
+
+        for (String f : filters)
+          if (name.indexOf(f) >= 0)
+            return true;
+
+        return false;
+    }
+
+    private static void printUsage()
+    {
+        System.out.println("Usage: ");
+        System.out.println("java Benchmarks [-warmup <n>] [-iterations <n>]"+
+                           " [-time <ms>] [-scenes <dir>] [filters...]");
+    }
+
+    //------------------------------------------------------------------------
+    // Ray-primitive intersection
+
+    static void addShapeBenches(Vector<Bench> benches)
+        throws Exception
+    {
+        Shape[] shapes = { new Sphere(emptyBody()), new Box(emptyBody()),
+                           new Cylinder(emptyBody()), new Cone(emptyBody()),
+                           tessellatedSphere(256, 128) };
+
+        // Object space rays from all around, aimed near the unit shapes
+        // (so that there is a mix of hits and misses)
+        Random random = new Random(428);
+        final Ray[] rays = new Ray[rayCount];
+        for (int i = 0; i < rays.length; i++) {
+            Point3d origin = new Point3d(random.nextGaussian(),
+                                         random.nextGaussian(),
+                                         random.nextGaussian());
+            origin.scale(5);
+            Vector3d direction = new Vector3d(random.nextDouble() * 3 - 1.5,
+                                              random.nextDouble() * 3 - 1.5,
+                                              random.nextDouble() * 3 - 1.5);
+            direction.sub(origin);
+            rays[i] = new Ray(origin, direction);
+        }
+
+        for (int k = 0; k < shapes.length; k++) {
+            final Shape s = shapes[k];
+            String name = "shape." + s.getClass().getName().toLowerCase();
+
+            benches.addElement(new Bench(name + ".hit") {
+                ISect isect = new ISect();
+                double run(int ops) {
+                    double sum = 0;
+                    for (int i = 0; i < ops; i++)
+                      if (s.hit(rays[i % rayCount], isect, true, 1e-5))
+                        sum += isect.u;
+                    return sum;
+                }
+            });
+            benches.addElement(new Bench(name + ".hitT") {
+                ISect isect = new ISect();
+                double run(int ops) {
+                    double sum = 0;
+                    for (int i = 0; i < ops; i++)
+                      if (s.hit(rays[i % rayCount], isect, false, 1e-5))
+                        sum += isect.t;
+                    return sum;
+                }
+            });
+        }
+    }
+
+    /** a unit sphere made of triangles (a mesh of nu * nv quads,
+     *  written to a temporary OBJ file) */
+    static Mesh tessellatedSphere(int nu, int nv)
+        throws IOException
+    {
+        File file = File.createTempFile("sphere", ".obj");
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(
+                new FileWriter(file)));
+            for (int j = 0; j <= nv; j++)
+              for (int i = 0; i <= nu; i++) {
+                  double theta = Math.PI * j / nv, phi = 2 * Math.PI * i / nu;
+                  double x = Math.sin(theta) * Math.cos(phi);
+                  double y = Math.sin(theta) * Math.sin(phi);
+                  double z = Math.cos(theta);
+                  out.println("v " + x + " " + y + " " + z);
+                  out.println("vn " + x + " " + y + " " + z);
+              }
+            for (int j = 0; j < nv; j++)
+              for (int i = 0; i < nu; i++) {
+                  int a = j * (nu + 1) + i + 1, b = a + 1;
+                  int c = b + nu + 1, d = a + nu + 1;
+                  out.println("f " + a + "//" + a + " " + d + "//" + d + " " +
+                              c + "//" + c + " " + b + "//" + b);
+              }
+            out.close();
+
+            Mesh mesh = new Mesh();
+            mesh.setFileName(file.getPath());
+            mesh.load();
+            return mesh;
+        } finally {
+            file.delete();
+        }
+    }
+
+    static StreamTokenizer emptyBody()
+    {
+        return new StreamTokenizer(new StringReader("{ }"));
+    }
+
+    //------------------------------------------------------------------------
+    // Per-sample building blocks
+
+    static void addSampleBenches(Vector<Bench> benches)
+        throws Exception
+    {
+        // Camera rays through a grid of image points
+        final Camera camera = new Camera();
+        camera.setup(renderWidth, renderHeight);
+        benches.addElement(new Bench("camera.pixelRay") {
+            double run(int ops) {
+                double sum = 0;
+                for (int i = 0; i < ops; i++) {
+                    double x = (i % 16) / 7.5 - 1, y = (i / 16 % 16) / 7.5 - 1;
+                    sum += camera.pixelRay(x, y).direction.z;
+                }
+                return sum;
+            }
+        });
+
+        // Shading at a hit point, for every light of a textured scene
+        Scene scene = loadScene("hardchecker");
+        scene.camera.setup(renderWidth, renderHeight);
+        final Ray r = scene.camera.pixelRay(0, 0);
+        for (int k = 0; k < scene.objects.size(); k++) {
+            Shape s = scene.objects.elementAt(k);
+            if (!s.getMaterialRef().hasTexture())
+              continue;
+
+            final ISect isect = new ISect();
+            isect.setHitObject(s);
+            isect.getHitPoint().set(0, 0, 0);
+            s.getMatrix().transform(isect.getHitPoint());
+            isect.getNormal().set(0, 1, 0);
+            isect.setU(0.3);
+            isect.setV(0.6);
+
+            // (the material and texture are looked at once per hit, for
+            // all the lights)
+            final ShadingContext shading =
+                new ShadingContext(scene.bvh, scene.epsilon);
+            shading.set(isect, r, s.getMaterialRef(), 1,
+                        scene.minLightContribution);
+            final Vector3d color = new Vector3d();
+
+            for (int l = 0; l < scene.lights.size(); l++) {
+                final Light light = scene.lights.elementAt(l);
+                benches.addElement(new Bench("light.shade." +
+                        (light.isDirectional() ? "directional" : "point")) {
+                    double run(int ops) {
+                        double sum = 0;
+                        for (int i = 0; i < ops; i++) {
+                            color.set(0, 0, 0);
+                            shading.addLight(light, color);
+                            sum += color.x;
+                        }
+                        return sum;
+                    }
+                });
+            }
+            break;
+        }
+
+        // Procedural textures from the scenes that use them
+        String[] texturedScenes = { "hardchecker", "slide" };
+        for (int k = 0; k < texturedScenes.length; k++) {
+            Scene texScene = loadScene(texturedScenes[k]);
+            for (int m = 0; m < texScene.materials.size(); m++) {
+                final Material mat = texScene.materials.elementAt(m);
+                if (!mat.hasTexture())
+                  continue;
+
+                final Vector3d color = new Vector3d();
+                benches.addElement(new Bench("material.getTextureColor." +
+                                             texturedScenes[k] + "." +
+                                             mat.getName()) {
+                    double run(int ops) {
+                        double sum = 0;
+                        for (int i = 0; i < ops; i++) {
+                            mat.getTextureColor((i % 97) / 97.0,
+                                                (i % 89) / 89.0, 0, color);
+                            sum += color.x;
+                        }
+                        return sum;
+                    }
+                });
+            }
+        }
+
+        // Image texture lookups, sharp and minified (on a generated image,
+        // so no texture file is needed)
+        RGBImage image = new RGBImage(512, 256);
+        Random random = new Random(428);
+        for (int i = 0; i < image.getWidth(); i++)
+          for (int j = 0; j < image.getHeight(); j++)
+            image.setPixel(i, j, new Vector3d(random.nextDouble(),
+                                              random.nextDouble(),
+                                              random.nextDouble()));
+        final MipTexture mip = new MipTexture(image);
+        final double[] footprints = { 0, 8 / 512.0 };
+        final String[] footprintNames = { "sharp", "minified" };
+        for (int k = 0; k < footprints.length; k++) {
+            final double footprint = footprints[k];
+            benches.addElement(new Bench("texture.mip.sample." +
+                                         footprintNames[k]) {
+                Vector3d color = new Vector3d();
+                double run(int ops) {
+                    double sum = 0;
+                    for (int i = 0; i < ops; i++) {
+                        mip.sample((i % 97) / 97.0, (i % 89) / 89.0,
+                                   footprint * (1 + (i % 7) / 7.0), color);
+                        sum += color.x;
+                    }
+                    return sum;
+                }
+            });
+        }
+    }
+
+    //------------------------------------------------------------------------
+    // Full frames
+
+    static void addRenderBenches(Vector<Bench> benches)
+        throws Exception
+    {
+        for (int k = 0; k < sceneNames.length; k++) {
+            final Scene scene = loadScene(sceneNames[k]);
+
+            benches.addElement(new Bench("render." + sceneNames[k]) {
+                double run(int ops) {
+                    double sum = 0;
+                    for (int i = 0; i < ops; i++)
+                      sum += render(scene, false);
+                    return sum;
+                }
+            });
+            benches.addElement(new Bench("render." + sceneNames[k] +
+                                         ".packets") {
+                double run(int ops) {
+                    scene.packetSize = 8;
+                    double sum = 0;
+                    for (int i = 0; i < ops; i++)
+                      sum += render(scene, false);
+                    scene.packetSize = 0;
+                    return sum;
+                }
+            });
+            benches.addElement(new Bench("render." + sceneNames[k] +
+                                         ".adaptive") {
+                double run(int ops) {
+                    double sum = 0;
+                    for (int i = 0; i < ops; i++)
+                      sum += render(scene, true);
+                    return sum;
+                }
+            });
+        }
+    }
+
+    static void addOrderBenches(Vector<Bench> benches)
+        throws Exception
+    {
+        for (int k = 0; k < sceneNames.length; k++) {
+            final Scene scene = loadScene(sceneNames[k]);
+
+            for (int order = 0; order < PixelOrder.names.length; order++) {
+                final int pixelOrder = order;
+                benches.addElement(new Bench("order." + sceneNames[k] + "." +
+                                             PixelOrder.names[order]) {
+                    double run(int ops) {
+                        scene.pixelOrder = pixelOrder;
+                        double sum = 0;
+                        for (int i = 0; i < ops; i++)
+                          sum += render(scene, false);
+                        return sum;
+                    }
+                });
+            }
+        }
+    }
+
+    /** render a frame, returning the color of its center pixel */
+    static double render(Scene scene, boolean adaptive)
+    {
+        try {
+            RGBImage image = scene.render(renderWidth, renderHeight, false,
+                                          adaptive, 1);
+            return image.getPixel(renderWidth / 2, renderHeight / 2).x;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** parse and set up one of the bundled scenes */
+    static Scene loadScene(String name)
+        throws Exception
+    {
+        Scene s = new Scene();
+        Parser p = new Parser(s);
+        p.readFile(new File(sceneDir, name).getPath());
+        s.setup();
+
+        return s;
+    }
+}
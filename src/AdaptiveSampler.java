@@ -0,0 +1,108 @@
+/* class AdaptiveSampler
+ * Adaptive supersampling of the pixels of one tile
+ *
+ * Each pixel is sampled at its four corners; where the corner colors
+ * differ too much, the pixel is split into four quarters which are
+ * sampled the same way (down to maxLevel subdivisions).  All the corner
+ * samples lie on a lattice of spacing 1/2^maxLevel pixels, and every
+ * lattice point is traced at most once: corners shared by neighboring
+ * pixels or sub-pixels come from a cache.  The cache belongs to the
+ * sampler, so each tile (and thread) has its own.
+ */
+import javax.vecmath.*;
+
+class AdaptiveSampler
+{
+    Scene scene;
+    Tile  tile;
+
+    // Number of times a pixel may be subdivided
+    int maxLevel;
+
+    // Pixels per lattice step is 1/scale (scale = 2^maxLevel)
+    int scale;
+    // Lattice points per row of the tile
+    int stride;
+
+    // Corner colors traced so far, by lattice index u * stride + v (null
+    // where not traced yet)
+    Vector3d[] corners;
+
+    // Number of corner samples that were traced, and found in the cache
+    long raysCast  = 0;
+    long raysSaved = 0;
+
+    // Number of squares split into four at each level
+    long[] subdivisions;
+
+    //------------------------------------------------------------------------
+
+    public AdaptiveSampler(Scene newScene, Tile newTile, int newMaxLevel)
+    {
+        scene    = newScene;
+        tile     = newTile;
+        maxLevel = newMaxLevel;
+
+        scale  = 1 << maxLevel;
+        stride = tile.getHeight() * scale + 1;
+        corners = new Vector3d[(tile.getWidth() * scale + 1) * stride];
+
+        subdivisions = new long[Math.max(0, maxLevel)];
+    }
+
+    /** compute the color of pixel (i,j) of the tile */
+    public Vector3d sample(int i, int j)
+    {
+        return sampleSquare((i - tile.x0) * scale, (j - tile.y0) * scale,
+                            scale, 0);
+    }
+
+    /** compute the color of the square of the lattice with corners
+     *  (u,v) and (u+size,v+size), at a subdivision level
+     */
+    private Vector3d sampleSquare(int u, int v, int size, int level)
+    {
+        Vector3d topLeft     = corner(u,        v);
+        Vector3d topRight    = corner(u,        v + size);
+        Vector3d bottomLeft  = corner(u + size, v);
+        Vector3d bottomRight = corner(u + size, v + size);
+
+        if (level < maxLevel &&
+            !scene.areColorsSimilar(topLeft, topRight, bottomLeft, bottomRight)) {
+            // Split into four quarters that share their corners
+            subdivisions[level]++;
+            int half = size / 2;
+            topLeft     = sampleSquare(u,        v,        half, level + 1);
+            topRight    = sampleSquare(u,        v + half, half, level + 1);
+            bottomLeft  = sampleSquare(u + half, v,        half, level + 1);
+            bottomRight = sampleSquare(u + half, v + half, half, level + 1);
+        }
+
+        Vector3d color = new Vector3d(topLeft);
+        color.add(topRight);
+        color.add(bottomLeft);
+        color.add(bottomRight);
+        color.scale(0.25);
+
+        return color;
+    }
+
+    /** color at lattice point (u,v), traced if it isn't cached yet */
+    private Vector3d corner(int u, int v)
+    {
+        int key = u * stride + v;
+        Vector3d color = corners[key];
+
+        if (color == null) {
+            // Lattice point (0,0) is the top-left corner of the tile
+            color = scene.tracePixel(tile.x0 - 0.5 + (double)u / scale,
+                                     tile.y0 - 0.5 + (double)v / scale);
+            corners[key] = color;
+            raysCast++;
+        } else {
+            raysSaved++;
+        }
+
+        return color;
+    }
+}
@@ -0,0 +1,53 @@
+import static org.junit.Assert.*;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+
+public class AdaptiveSamplerTest {
+	static final int size = SceneTest.size;
+
+	@Test
+	public void testUniformPixelsShareCorners() throws Exception {
+		Scene s = SceneTest.scene("light { position = (0, 0, 10) }\n");
+		Tile tile = new Tile(0, 0, 4, 4);
+		AdaptiveSampler sampler = new AdaptiveSampler(s, tile, 3);
+
+		for (int i = 0; i < 4; i++)
+			for (int j = 0; j < 4; j++)
+				assertEquals(new Vector3d(), sampler.sample(i, j));
+
+		// Nothing to subdivide: each pixel corner is traced once
+		assertEquals(25, sampler.raysCast);
+		assertEquals(4 * 16 - 25, sampler.raysSaved);
+	}
+
+	@Test
+	public void testSubdividedCornersAreTracedOnce() throws Exception {
+		Scene s = SceneTest.scene("light { position = (0, 0, 10) }\n" +
+				"translate { (0, 0, -5) }\nsphere { }\n");
+		Tile tile = new Tile(0, 0, size, size);
+		AdaptiveSampler sampler = new AdaptiveSampler(s, tile, 3);
+
+		Vector3d[][] colors = new Vector3d[size][size];
+		for (int i = 0; i < size; i++)
+			for (int j = 0; j < size; j++)
+				colors[i][j] = sampler.sample(i, j);
+
+		// The sphere's edge is subdivided, but no lattice point is
+		// traced twice
+		int lattice = size * 8 + 1;
+		assertTrue(sampler.raysCast > (size + 1) * (size + 1));
+		assertTrue(sampler.raysCast <= lattice * lattice);
+		assertTrue(sampler.raysSaved > 0);
+
+		// Sharing corners does not change the result
+		for (int i = 0; i < size; i++)
+			for (int j = 0; j < size; j++) {
+				AdaptiveSampler single =
+					new AdaptiveSampler(s, new Tile(i, j, i + 1, j + 1), 3);
+				assertEquals(colors[i][j], single.sample(i, j));
+			}
+	}
+}
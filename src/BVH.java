@@ -0,0 +1,460 @@
+/* class BVH
+ * Bounding volume hierarchy over the shapes of a scene, so a ray only
+ * has to be tested against the shapes whose bounding boxes it enters
+ *
+ * The tree is stored in flat arrays: the first child of an interior
+ * node directly follows it, and the index of the second child is
+ * stored with the node.
+ */
+import java.util.*;
+import javax.vecmath.*;
+
+class BVH
+{
+    // Maximum number of shapes in a leaf
+    static final int leafSize = 2;
+
+    // Shapes, in the order the leaves reference them
+    Shape[] shapes;
+
+    // Position of each shape in the scene object list (closest hits at
+    // the same t go to the earlier object, just like a linear search)
+    int[] shapeIndex;
+
+    // Type of each shape, for counting hit() calls (see RenderStats)
+    int[] shapeType;
+
+    // Node bounds (minX, minY, minZ, maxX, maxY, maxZ for each node)
+    double[] bounds;
+
+    // Interior nodes: index of the second child; leaves: -1
+    int[] secondChild;
+
+    // Leaves: shapes [first, first+count) of the shapes array
+    int[] first;
+    int[] count;
+
+    int nodeCount = 0;
+
+    // Deepest path in the tree (sizes the traversal stack)
+    int depth = 0;
+
+    //------------------------------------------------------------------------
+
+    /** build the hierarchy from the world space bounds of the objects */
+    public BVH(Vector<Shape> objects)
+    {
+        int n = objects.size();
+
+        shapes      = new Shape[n];
+        shapeIndex  = new int[n];
+        shapeType   = new int[n];
+        bounds      = new double[6 * Math.max(1, 2 * n)];
+        secondChild = new int[Math.max(1, 2 * n)];
+        first       = new int[secondChild.length];
+        count       = new int[secondChild.length];
+
+        if (n == 0)
+          return;
+
+        // World space bounds and centroid of every object
+        double[] objBounds = new double[6 * n];
+        double[] centroids = new double[3 * n];
+        Point3d min = new Point3d(), max = new Point3d();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            objects.elementAt(i).getWorldBounds(min, max);
+            objBounds[6*i]   = min.x;
+            objBounds[6*i+1] = min.y;
+            objBounds[6*i+2] = min.z;
+            objBounds[6*i+3] = max.x;
+            objBounds[6*i+4] = max.y;
+            objBounds[6*i+5] = max.z;
+            centroids[3*i]   = 0.5 * (min.x + max.x);
+            centroids[3*i+1] = 0.5 * (min.y + max.y);
+            centroids[3*i+2] = 0.5 * (min.z + max.z);
+            order[i] = i;
+        }
+
+        build(order, 0, n, objBounds, centroids, 1);
+
+        for (int i = 0; i < n; i++) {
+            shapes[i]     = objects.elementAt(order[i]);
+            shapeIndex[i] = order[i];
+            shapeType[i]  = RenderStats.shapeType(shapes[i]);
+        }
+    }
+
+    /** build the node for objects order[start..end), returns its index */
+    private int build(Integer[] order, int start, int end,
+                      double[] objBounds, final double[] centroids,
+                      int level)
+    {
+        int node = nodeCount++;
+        depth = Math.max(depth, level);
+
+        // Bounds of the node, and of the object centroids in it
+        double[] cmin = { Double.MAX_VALUE,  Double.MAX_VALUE,
+                          Double.MAX_VALUE };
+        double[] cmax = { -Double.MAX_VALUE, -Double.MAX_VALUE,
+                          -Double.MAX_VALUE };
+        for (int a = 0; a < 3; a++) {
+            bounds[6*node+a]   =  Double.MAX_VALUE;
+            bounds[6*node+3+a] = -Double.MAX_VALUE;
+        }
+        for (int k = start; k < end; k++) {
+            int i = order[k];
+            for (int a = 0; a < 3; a++) {
+                bounds[6*node+a]   = Math.min(bounds[6*node+a],
+                                              objBounds[6*i+a]);
+                bounds[6*node+3+a] = Math.max(bounds[6*node+3+a],
+                                              objBounds[6*i+3+a]);
+                cmin[a] = Math.min(cmin[a], centroids[3*i+a]);
+                cmax[a] = Math.max(cmax[a], centroids[3*i+a]);
+            }
+        }
+
+        if (end - start <= leafSize) {
+            secondChild[node] = -1;
+            first[node] = start;
+            count[node] = end - start;
+            return node;
+        }
+
+        // Split at the median along the longest axis of the centroids
+        int axis = 0;
+        for (int a = 1; a < 3; a++)
+          if (cmax[a] - cmin[a] > cmax[axis] - cmin[axis])
+            axis = a;
+
+        final int sortAxis = axis;
+        Arrays.sort(order, start, end, new Comparator<Integer>() {
+            public int compare(Integer i, Integer j) {
+                return Double.compare(centroids[3*i + sortAxis],
+                                      centroids[3*j + sortAxis]);
+            }
+        });
+
+        int mid = (start + end) / 2;
+        build(order, start, mid, objBounds, centroids, level + 1);
+        secondChild[node] = build(order, mid, end, objBounds, centroids,
+                                  level + 1);
+
+        return node;
+    }
+
+    //------------------------------------------------------------------------
+
+    /** find the closest intersection along r (t values above minT), with
+     *  the hit point and normal left in object space (like Shape.hit)
+     */
+    public boolean intersect(Ray r, ISect intersection, double minT)
+    {
+        return intersect(r, intersection, minT, null);
+    }
+
+    /** intersect(), counting the hit() calls in stats (if it isn't null) */
+    public boolean intersect(Ray r, ISect intersection, double minT,
+                             RenderStats stats)
+    {
+        ISect closest = new ISect();
+        closest.t = Double.MAX_VALUE;
+        int closestIndex = -1;
+
+        if (nodeCount > 0) {
+            double invX = 1 / r.direction.x;
+            double invY = 1 / r.direction.y;
+            double invZ = 1 / r.direction.z;
+
+            // Nodes still to visit, with the t where the ray enters them
+            int[]    stack = new int[depth + 1];
+            double[] enter = new double[depth + 1];
+            int top = 0;
+
+            // Object space ray (reused for every shape)
+            Ray copy = new Ray();
+
+            double t0 = enter(0, r, invX, invY, invZ);
+            if (t0 != Double.POSITIVE_INFINITY) {
+                stack[top] = 0;
+                enter[top++] = t0;
+            }
+
+            while (top > 0) {
+                int node = stack[--top];
+
+                // Something closer was found since this node was pushed
+                if (enter[top] > closest.t)
+                  continue;
+
+                if (secondChild[node] < 0) {
+                    for (int k = first[node]; k < first[node] + count[node]; k++) {
+                        Shape current = shapes[k];
+
+                        // Skip the transformation and hit() when the ray
+                        // misses the shape's own bounds (or only enters
+                        // them beyond the closest hit so far)
+                        if (enterBox(current.worldBounds, 0, r,
+                                     invX, invY, invZ) > closest.t)
+                          continue;
+
+                        // Transform ray to object space
+                        Ray local = current.rayToObject(r, copy);
+
+                        // Find closest intersection point
+                        boolean hit = current.hit(local, intersection, true,
+                                                  minT);
+                        if (stats != null)
+                          stats.countHit(shapeType[k], hit);
+                        if (hit &&
+                            (intersection.t < closest.t ||
+                             (intersection.t == closest.t &&
+                              shapeIndex[k] < closestIndex))) {
+                            closest.set(intersection);
+                            closestIndex = shapeIndex[k];
+                        }
+                    }
+                } else {
+                    // Visit the nearer child first (it goes on top)
+                    int a = node + 1, b = secondChild[node];
+                    double ta = enter(a, r, invX, invY, invZ);
+                    double tb = enter(b, r, invX, invY, invZ);
+                    if (ta > tb) {
+                        int ti = a; a = b; b = ti;
+                        double tt = ta; ta = tb; tb = tt;
+                    }
+                    if (tb <= closest.t) {
+                        stack[top] = b;
+                        enter[top++] = tb;
+                    }
+                    if (ta <= closest.t) {
+                        stack[top] = a;
+                        enter[top++] = ta;
+                    }
+                }
+            }
+        }
+
+        // Make sure we point to the closest intersection point
+        intersection.set(closest);
+
+        return closestIndex >= 0;
+    }
+
+    /** find the closest intersection along every ray of a packet (left
+     *  in packet.hits, in object space, with no hit object for the rays
+     *  that miss), counting the hit() calls in stats (if it
+     *  isn't null)
+     *
+     *  The nodes are visited once for the whole packet, and each shape
+     *  is only tested against the rays that enter its bounds before
+     *  their own closest hit, so every ray finds the same hit that
+     *  intersect() would.
+     */
+    public void intersect(RayPacket packet, double minT, RenderStats stats)
+    {
+        packet.prepare();
+        if (nodeCount == 0)
+          return;
+
+        // Nodes still to visit, with the first t where a ray enters them,
+        // and the range of rays that enter them (the rays outside it
+        // cannot enter anything below), kept in the packet
+        packet.reserveStack(depth + 1);
+        int[]    stack = packet.stack;
+        double[] enter = packet.stackEnter;
+        int[]    lo    = packet.stackLo;
+        int[]    hi    = packet.stackHi;
+        int top = 0;
+
+        double t0 = packet.firstEnter(bounds, 0, 0, packet.count);
+        if (t0 != Double.POSITIVE_INFINITY) {
+            stack[top] = 0;
+            enter[top] = t0;
+            lo[top]    = packet.firstActive;
+            hi[top++]  = packet.lastActive;
+        }
+
+        while (top > 0) {
+            int node = stack[--top];
+            int from = lo[top], to = hi[top];
+
+            // Something closer was found for every ray since this node
+            // was pushed
+            double farthest = packet.farthestHit(from, to);
+            if (enter[top] > farthest)
+              continue;
+
+            if (secondChild[node] < 0) {
+                for (int k = first[node]; k < first[node] + count[node]; k++) {
+                    Shape current = shapes[k];
+                    if (packet.missesAll(current.worldBounds, 0, farthest))
+                      continue;
+
+                    for (int i = from; i < to; i++) {
+                        if (packet.enter(i, current.worldBounds, 0) >
+                            packet.closestT[i])
+                          continue;
+
+                        Ray local = current.rayToObject(packet.rays[i],
+                                                       packet.copy);
+                        ISect intersection = packet.tests[i];
+                        boolean hit = current.hit(local, intersection, true,
+                                                  minT);
+                        if (stats != null)
+                          stats.countHit(shapeType[k], hit);
+                        if (hit &&
+                            (intersection.t < packet.closestT[i] ||
+                             (intersection.t == packet.closestT[i] &&
+                              shapeIndex[k] < packet.closestIndex[i]))) {
+                            packet.hits[i].set(intersection);
+                            packet.closestT[i]     = intersection.t;
+                            packet.closestIndex[i] = shapeIndex[k];
+                        }
+                    }
+                    farthest = packet.farthestHit(from, to);
+                }
+            } else {
+                // Visit first the child that some ray enters first
+                int a = node + 1, b = secondChild[node];
+                double ta = packet.firstEnter(bounds, 6 * a, from, to);
+                int loA = packet.firstActive, hiA = packet.lastActive;
+                double tb = packet.firstEnter(bounds, 6 * b, from, to);
+                int loB = packet.firstActive, hiB = packet.lastActive;
+                if (ta > tb) {
+                    int ti = a; a = b; b = ti;
+                    double tt = ta; ta = tb; tb = tt;
+                    ti = loA; loA = loB; loB = ti;
+                    ti = hiA; hiA = hiB; hiB = ti;
+                }
+                if (tb != Double.POSITIVE_INFINITY) {
+                    stack[top] = b;
+                    enter[top] = tb;
+                    lo[top]    = loB;
+                    hi[top++]  = hiB;
+                }
+                if (ta != Double.POSITIVE_INFINITY) {
+                    stack[top] = a;
+                    enter[top] = ta;
+                    lo[top]    = loA;
+                    hi[top++]  = hiA;
+                }
+            }
+        }
+    }
+
+    /** multiply tint by the Kt of every object hit along r with a t
+     *  value in (minT, maxT]
+     *
+     *  This is an any-hit query: objects are visited in no particular
+     *  order, and it returns as soon as the tint reaches (0,0,0)
+     */
+    public void shadowTint(Ray r, double minT, double maxT, Vector3d tint)
+    {
+        shadowTint(r, minT, maxT, tint, new int[getStackSize()],
+                   new ISect(), new Ray(), null);
+    }
+
+    /** shadowTint(), using the given scratch space for the traversal
+     *  stack (of at least getStackSize() entries), the intersections and
+     *  the object space rays (so callers tracing many shadow rays do not
+     *  allocate for each), and counting the hit() calls in stats (if it
+     *  isn't null)
+     */
+    public void shadowTint(Ray r, double minT, double maxT, Vector3d tint,
+                           int[] stack, ISect intersection, Ray copy,
+                           RenderStats stats)
+    {
+        if (nodeCount == 0)
+          return;
+
+        double invX = 1 / r.direction.x;
+        double invY = 1 / r.direction.y;
+        double invZ = 1 / r.direction.z;
+
+        int top = 0;
+        stack[top++] = 0;
+
+        while (top > 0) {
+            int node = stack[--top];
+
+            if (enter(node, r, invX, invY, invZ) > maxT)
+              continue;
+
+            if (secondChild[node] < 0) {
+                for (int k = first[node]; k < first[node] + count[node]; k++) {
+                    Shape current = shapes[k];
+
+                    if (enterBox(current.worldBounds, 0, r,
+                                 invX, invY, invZ) > maxT)
+                      continue;
+
+                    // Transform ray to object space (t stays the same
+                    // along the transformed ray)
+                    Ray local = current.rayToObject(r, copy);
+
+                    boolean hit = current.hit(local, intersection, false,
+                                              minT);
+                    if (stats != null)
+                      stats.countHit(shapeType[k], hit);
+                    if (hit && intersection.t <= maxT) {
+                        Tools.termwiseMul3d(tint,
+                                current.getMaterialRef().getKt());
+
+                        // The light is blocked entirely
+                        if (tint.x == 0 && tint.y == 0 && tint.z == 0)
+                          return;
+                    }
+                }
+            } else {
+                stack[top++] = secondChild[node];
+                stack[top++] = node + 1;
+            }
+        }
+    }
+
+    /** size of the traversal stack needed by shadowTint() */
+    public int getStackSize() { return depth + 1; }
+
+    /** t at which r enters the bounds of a node (clamped to 0 if the
+     *  origin is inside), or infinity if the ray misses it
+     */
+    private double enter(int node, Ray r, double invX, double invY,
+                         double invZ)
+    {
+        return enterBox(bounds, 6 * node, r, invX, invY, invZ);
+    }
+
+    /** t at which r enters the box stored at box[b..b+6) (minX, minY,
+     *  minZ, maxX, maxY, maxZ), clamped to 0 if the origin is inside, or
+     *  infinity if the ray misses it (invX, invY, invZ are the inverses
+     *  of the ray direction components)
+     */
+    static double enterBox(double[] box, int b, Ray r, double invX,
+                           double invY, double invZ)
+    {
+        double near = 0, far = Double.POSITIVE_INFINITY;
+        double t1, t2;
+
+        // (a NaN from a ray lying on a slab plane never culls the box)
+        t1 = (box[b]   - r.origin.x) * invX;
+        t2 = (box[b+3] - r.origin.x) * invX;
+        if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+        if (t1 > near) near = t1;
+        if (t2 < far)  far  = t2;
+
+        t1 = (box[b+1] - r.origin.y) * invY;
+        t2 = (box[b+4] - r.origin.y) * invY;
+        if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+        if (t1 > near) near = t1;
+        if (t2 < far)  far  = t2;
+
+        t1 = (box[b+2] - r.origin.z) * invZ;
+        t2 = (box[b+5] - r.origin.z) * invZ;
+        if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+        if (t1 > near) near = t1;
+        if (t2 < far)  far  = t2;
+
+        return near <= far ? near : Double.POSITIVE_INFINITY;
+    }
+}
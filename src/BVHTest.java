@@ -0,0 +1,145 @@
+import static org.junit.Assert.*;
+
+import java.io.StreamTokenizer;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.Vector;
+
+import javax.vecmath.AxisAngle4d;
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Vector3d;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class BVHTest {
+	Vector<Shape> objects;
+	Random random;
+
+	StreamTokenizer emptyBody() {
+		return new StreamTokenizer(new StringReader("{ }"));
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		random = new Random(428);
+		objects = new Vector<Shape>();
+
+		Material mat = new Material("default");
+		for (int i = 0; i < 200; i++) {
+			Shape s;
+			switch (i % 4) {
+			case 0:  s = new Sphere(emptyBody());   break;
+			case 1:  s = new Box(emptyBody());      break;
+			case 2:  s = new Cylinder(emptyBody()); break;
+			default: s = new Cone(emptyBody());     break;
+			}
+
+			// Random placement, orientation and (non-uniform) size
+			Matrix4d m = new Matrix4d();
+			m.setIdentity();
+			m.setTranslation(randomVector(10));
+			Matrix4d rotate = new Matrix4d();
+			rotate.setIdentity();
+			rotate.setRotation(new AxisAngle4d(randomVector(1), random.nextDouble() * 6));
+			m.mul(rotate);
+			Matrix4d scale = new Matrix4d();
+			scale.setIdentity();
+			scale.m00 = 0.1 + random.nextDouble();
+			scale.m11 = 0.1 + random.nextDouble();
+			scale.m22 = 0.1 + random.nextDouble();
+			m.mul(scale);
+
+			s.setMaterialRef(mat);
+			s.setMatrix(m);
+			objects.addElement(s);
+		}
+	}
+
+	Vector3d randomVector(double size) {
+		return new Vector3d((random.nextDouble() * 2 - 1) * size,
+				(random.nextDouble() * 2 - 1) * size,
+				(random.nextDouble() * 2 - 1) * size);
+	}
+
+	/** closest hit by testing every object (the way Scene used to) */
+	Shape linearClosest(Ray r, double minT) {
+		ISect intersection = new ISect();
+		Shape closest = null;
+		double closestT = Double.MAX_VALUE;
+		for (Shape s : objects) {
+			Ray copy = new Ray(r);
+			s.MInverse.transform(copy.origin);
+			s.MInverse.transform(copy.direction);
+			if (s.hit(copy, intersection, true, minT) && intersection.t < closestT) {
+				closestT = intersection.t;
+				closest = s;
+			}
+		}
+		return closest;
+	}
+
+	@Test
+	public void testMatchesLinearSearch() {
+		BVH bvh = new BVH(objects);
+
+		int hits = 0;
+		for (int i = 0; i < 2000; i++) {
+			Vector3d direction = randomVector(1);
+			direction.normalize();
+			Ray r = new Ray();
+			r.origin.set(randomVector(15));
+			r.direction.set(direction);
+
+			Shape expected = linearClosest(r, 1e-5);
+			ISect intersection = new ISect();
+			boolean hit = bvh.intersect(r, intersection, 1e-5);
+
+			assertEquals(expected != null, hit);
+			assertSame(expected, intersection.getHitObject());
+			if (hit)
+				hits++;
+		}
+
+		// Make sure the test actually exercised the tree
+		assertTrue(hits > 100);
+	}
+
+	@Test
+	public void testShadowTintHonoursMaxT() throws Exception {
+		// A single opaque unit sphere, 5 units in front of the origin
+		Shape sphere = new Sphere(emptyBody());
+		Matrix4d m = new Matrix4d();
+		m.setIdentity();
+		m.setTranslation(new Vector3d(0, 0, -5));
+		sphere.setMaterialRef(new Material("default"));
+		sphere.setMatrix(m);
+		Vector<Shape> scene = new Vector<Shape>();
+		scene.addElement(sphere);
+		BVH bvh = new BVH(scene);
+
+		Ray r = new Ray(new javax.vecmath.Point3d(), new Vector3d(0, 0, -1));
+
+		// The light is in front of the sphere
+		Vector3d tint = new Vector3d(1, 1, 1);
+		bvh.shadowTint(r, 1e-5, 3.0, tint);
+		assertEquals(new Vector3d(1, 1, 1), tint);
+
+		// The light is behind it
+		bvh.shadowTint(r, 1e-5, 10.0, tint);
+		assertEquals(new Vector3d(0, 0, 0), tint);
+	}
+
+	@Test
+	public void testEmptyScene() {
+		BVH bvh = new BVH(new Vector<Shape>());
+		Ray r = new Ray(new javax.vecmath.Point3d(), new Vector3d(0, 0, -1));
+
+		assertFalse(bvh.intersect(r, new ISect(), 1e-5));
+
+		Vector3d tint = new Vector3d(1, 1, 1);
+		bvh.shadowTint(r, 1e-5, Double.MAX_VALUE, tint);
+		assertEquals(new Vector3d(1, 1, 1), tint);
+	}
+}
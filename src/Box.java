@@ -21,6 +21,11 @@ class Box extends Shape
 	read(tokenizer);
     }
 
+    /** constructor for a box that is not read from a file */
+    public Box()
+    {
+    }
+
     // -----------------------------------------------------------------------
 
     /** computes the ray intersection point of a cube centered on the
@@ -28,68 +33,45 @@ class Box extends Shape
      */
     boolean hit(Ray r, ISect intersection, boolean all, double minT)
     {
-	double rayLength = r.getDirection().length();
-	r.getDirection().normalize();
+	// Normalized ray direction (r itself is left alone)
+	Vector3d rd = r.getDirection();
+	double rayLength = Math.sqrt(rd.x*rd.x + rd.y*rd.y + rd.z*rd.z);
+	double norm = 1.0/rayLength;
+	double dx = rd.x*norm, dy = rd.y*norm, dz = rd.z*norm;
 	minT *= rayLength;
 	boolean objHit = false;
-       
-	double[] rayPos = new double[3];
-	r.getPoint().get( rayPos);
-	double[] rayDir = new double[3];
-	r.getDirection().get( rayDir);
-       
-	double t1, t2;
-       
-	for (int i = 0; i < rayDir.length; i++) {
-	    int i1 = (i+1) % 3;
-	    int i2 = (i+2) % 3;
-	    double left = -1.0;
-	    double right = 1.0;
-	    double dir = rayDir[i];
-	    double pos = rayPos[i];
-	   
+
+	Point3d rp = r.getPoint();
+	double left = -1.0;
+	double right = 1.0;
+
+	for (int i = 0; i < 3; i++) {
+	    double dir = component(dx, dy, dz, i);
+	    double pos = component(rp.x, rp.y, rp.z, i);
+
 	    if (dir != 0.0) {
-		t1 = (left - pos) / dir;
-		if (t1 >= minT && (!objHit || t1 < intersection.t)) {
-		    Point3d iPoint = new Point3d((Tuple3d)r.getDirection());
-		    iPoint.scaleAdd(t1, r.getPoint());
-		   
-		    double[] temp = new double[3];
-		    iPoint.get(temp);
-		    if (!(temp[i1] < left || temp[i1] > right ||
-			  temp[i2] < left || temp[i2] > right)) {
-		       
-			objHit = true;
-			intersection.t = t1;
-			intersection.setHitPoint(iPoint);
-			if (all) {
-			    intersection.getNormal().set(0,0,0);
-			    double[] nVector = new double[3];
-			    intersection.getNormal().get(nVector);
-			    nVector[i] = -1.0;
-			    intersection.getNormal().set(nVector);
-			    uvPlane(intersection, i1, i2);
-			}
-		    }
-		}
-		t2 = (right - pos) / dir;
-		if (t2 >= minT && (!objHit || t2 < intersection.t)) {
-		    Point3d iPoint = new Point3d((Tuple3d)r.getDirection());
-		    iPoint.scaleAdd(t2, r.getPoint());
-		    double[] temp = new double[3];
-		    iPoint.get(temp);
-		    if (!(temp[i1] < left || temp[i1] > right ||
-			  temp[i2] < left || temp[i2] > right)) {
-			objHit = true;
-			intersection.setHitPoint(iPoint);
-			intersection.t = t2;
-			if (all) {
-			    intersection.getNormal().set(0,0,0);
-			    double[] nVector = new double[3];
-			    intersection.getNormal().get(nVector);
-			    nVector[i] = 1.0;
-			    intersection.getNormal().set(nVector);
-			    uvPlane(intersection, i1, i2);
+		// Test the planes at -1 and 1 along axis i
+		for (int side = 0; side < 2; side++) {
+		    double t = ((side == 0 ? left : right) - pos) / dir;
+		    if (t >= minT && (!objHit || t < intersection.t)) {
+			double x = t*dx + rp.x;
+			double y = t*dy + rp.y;
+			double z = t*dz + rp.z;
+
+			// Is the hit point within the face?
+			if ((i == 0 || (x >= left && x <= right)) &&
+			    (i == 1 || (y >= left && y <= right)) &&
+			    (i == 2 || (z >= left && z <= right))) {
+			    objHit = true;
+			    intersection.t = t;
+			    intersection.getHitPoint().set(x, y, z);
+			    if (all) {
+				double n = side == 0 ? -1.0 : 1.0;
+				intersection.getNormal().set(i == 0 ? n : 0,
+							     i == 1 ? n : 0,
+							     i == 2 ? n : 0);
+				uvPlane(intersection, (i+1) % 3, (i+2) % 3);
+			    }
 			}
 		    }
 		}
@@ -102,14 +84,26 @@ class Box extends Shape
 	}
 	return objHit;
     }
-    
+
+    /** returns component i (0, 1 or 2) of (x, y, z) */
+    private static double component(double x, double y, double z, int i)
+    {
+	return i == 0 ? x : (i == 1 ? y : z);
+    }
+
+    /** the box is the cube [-1, 1]^3 */
+    void getObjectBounds(Point3d min, Point3d max)
+    {
+	min.set(-1, -1, -1);
+	max.set(1, 1, 1);
+    }
+
     private void uvPlane(ISect intersection, int x, int y)
     {
-	double[] ipoint = new double[3];
-	intersection.getHitPoint().get(ipoint);
+	Point3d ipoint = intersection.getHitPoint();
 	
-	intersection.setU((ipoint[x]+1.0)/2);
-	intersection.setV((ipoint[y]+1.0)/2);
+	intersection.setU((component(ipoint.x, ipoint.y, ipoint.z, x)+1.0)/2);
+	intersection.setV((component(ipoint.x, ipoint.y, ipoint.z, y)+1.0)/2);
 	
 	intersection.getDpDu().set(x == 0 ? 1 : 0,
 				   x == 1 ? 1 : 0,
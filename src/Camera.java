@@ -4,6 +4,7 @@
  * Doug DeCarlo
  */
 import java.io.*;
+import java.util.*;
 import java.lang.reflect.*;
 import java.text.ParseException;
 import javax.vecmath.*;
@@ -23,6 +24,40 @@ class Camera extends RaytracerObject
     /** near plane */
     double near = 1;
 
+    /** parameters of a camera */
+    static final HashMap<String, ParamSpec> paramSpecs =
+        paramTable(RaytracerObject.paramSpecs,
+            new ParamSpec("eye") {
+                void read(StreamTokenizer tokenizer, RaytracerObject target)
+                    throws ParseException, IOException {
+                    ((Camera)target).setEye(Parser.readPoint3d(tokenizer));
+                }
+            },
+            new ParamSpec("look") {
+                void read(StreamTokenizer tokenizer, RaytracerObject target)
+                    throws ParseException, IOException {
+                    ((Camera)target).setLook(Parser.readVector3d(tokenizer));
+                }
+            },
+            new ParamSpec("up") {
+                void read(StreamTokenizer tokenizer, RaytracerObject target)
+                    throws ParseException, IOException {
+                    ((Camera)target).setUp(Parser.readVector3d(tokenizer));
+                }
+            },
+            new ParamSpec("fovy") {
+                void read(StreamTokenizer tokenizer, RaytracerObject target)
+                    throws ParseException, IOException {
+                    ((Camera)target).setFovy(Parser.readDouble(tokenizer));
+                }
+            },
+            new ParamSpec("near") {
+                void read(StreamTokenizer tokenizer, RaytracerObject target)
+                    throws ParseException, IOException {
+                    ((Camera)target).setNear(Parser.readDouble(tokenizer));
+                }
+            });
+
     // ------
 
     /** aspect ratio (width/height) */
@@ -31,6 +66,10 @@ class Camera extends RaytracerObject
     /** Camera coordinate system (u, v are scaled based on image size) */
     Vector3d u, v, n;
 
+    /** distance between neighboring pixel rays, one unit along the rays
+     *  (from the center of the image) */
+    double pixelSpread;
+
     //-----------------------------------------------------------------------
 
     /** if the camera is specified by default values, pass a null as tokenizer
@@ -42,13 +81,6 @@ class Camera extends RaytracerObject
     {
         super(tokenizer);
 
-        // add parameters
-        addSpec("eye",    "setEye",    eye.getClass().getName());
-        addSpec("look",   "setLook",   look.getClass().getName());
-        addSpec("up",     "setUp",     up.getClass().getName());
-        addSpec("fovy",   "setFovy",   "java.lang.Double");
-        addSpec("near",   "setNear",   "java.lang.Double");
-
         read(tokenizer);
     }
 
@@ -60,12 +92,17 @@ class Camera extends RaytracerObject
         super(null);
     }
 
+    HashMap<String, ParamSpec> getParamSpecs() { return paramSpecs; }
+
     /** Set up camera */
     public void setup(int width, int height)
     {
         aspect = (double)width / height;
 
         computeUVN();
+
+        pixelSpread = 2 * Math.tan(fovy/2.0 * Math.PI/180.0) /
+            Math.max(1, height - 1);
     }
 
     //-----------------------------------------------------------------------
@@ -77,6 +114,7 @@ class Camera extends RaytracerObject
     public double   getFovy()   { return fovy; }
     public double   getAspect() { return aspect; }
     public double   getNear()   { return near; }
+    public double   getPixelSpread() { return pixelSpread; }
     
     public void setEye(Point3d newVal)   { eye.set(newVal); }
     public void setLook(Vector3d newVal) { look.set(newVal); }
@@ -129,7 +167,13 @@ class Camera extends RaytracerObject
     public Ray pixelRay(double x, double y)
     {
         // Create and compute ray through pixel
-    	Ray ray = new Ray();
+        return pixelRay(x, y, new Ray());
+    }
+
+    /** same as pixelRay(x, y), but sets ray to it (and returns it) */
+    public Ray pixelRay(double x, double y, Ray ray)
+    {
+    	ray.pathLength = 0;
     	ray.direction.set(0, 0, 0);
     	ray.direction.x += x * u.x + y * v.x - near * n.x;
     	ray.direction.y += x * u.y + y * v.y - near * n.y;
@@ -0,0 +1,28 @@
+/* class CheckerTexture
+ * Procedural checkerboard of two colors
+ */
+import javax.vecmath.*;
+
+final class CheckerTexture extends Texture
+{
+    final double r1, g1, b1;
+    final double r2, g2, b2;
+    final double scaleU, scaleV;
+
+    public CheckerTexture(Tuple3d color1, Tuple3d color2,
+                          double scaleU, double scaleV)
+    {
+        r1 = color1.x; g1 = color1.y; b1 = color1.z;
+        r2 = color2.x; g2 = color2.y; b2 = color2.z;
+        this.scaleU = scaleU;
+        this.scaleV = scaleV;
+    }
+
+    void color(double u, double v, double footprint, Tuple3d target)
+    {
+        if ((int)(Math.floor(u * scaleU) + Math.floor(v * scaleV)) % 2 == 0)
+          target.set(r1, g1, b1);
+        else
+          target.set(r2, g2, b2);
+    }
+}
@@ -0,0 +1,333 @@
+/* class CompiledScene
+ * Binary form of a scene, with everything the parser works out already
+ * done: the objects are stored with their world space matrices and the
+ * index of their material, and the lights are already transformed
+ *
+ * Loading a compiled scene maps the file and builds the objects
+ * directly, without the tokenizer, reflection or the matrix stack.
+ *
+ * Layout (big endian): the magic number and version, then the camera
+ * (if there is one), the materials, the lights, and the shapes.  Texture
+ * images are referenced by file name, and loaded by Scene.setup(); meshes
+ * are referenced by the name of their OBJ file, which is read as the
+ * compiled scene is loaded.
+ */
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.text.ParseException;
+import java.lang.reflect.*;
+import javax.vecmath.*;
+
+class CompiledScene
+{
+    static final int magic   = 0x52545343;   // "RTSC"
+    static final int version = 1;
+
+    // Shape types
+    static final byte SPHERE   = 0;
+    static final byte BOX      = 1;
+    static final byte CYLINDER = 2;
+    static final byte CONE     = 3;
+    static final byte MESH     = 4;
+
+    //------------------------------------------------------------------------
+    // Writing
+
+    /** write the (parsed) scene s to a file */
+    public static void write(Scene s, String fileName)
+        throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+        try {
+            out.writeInt(magic);
+            out.writeInt(version);
+
+            // Camera
+            out.writeBoolean(s.camera != null);
+            if (s.camera != null) {
+                Camera c = s.camera;
+                writeString(out, c.getName());
+                writeTuple(out, c.eye);
+                writeTuple(out, c.look);
+                writeTuple(out, c.up);
+                out.writeDouble(c.fovy);
+                out.writeDouble(c.near);
+            }
+
+            // Materials (the shapes refer to them by position)
+            IdentityHashMap<Material, Integer> materialIndex =
+                new IdentityHashMap<Material, Integer>();
+            out.writeInt(s.materials.size());
+            for (int i = 0; i < s.materials.size(); i++) {
+                Material m = s.materials.elementAt(i);
+                materialIndex.put(m, i);
+
+                writeString(out, m.getName());
+                writeTuple(out, m.ambient);
+                writeTuple(out, m.diffuse);
+                writeTuple(out, m.specular);
+                writeTuple(out, m.transparent);
+                out.writeDouble(m.index);
+                out.writeDouble(m.shininess);
+
+                writeString(out, m.textureType);
+                writeString(out, m.textureFileName);
+                out.writeDouble(m.textureScaleU);
+                out.writeDouble(m.textureScaleV);
+                out.writeBoolean(m.texColor1 != null);
+                if (m.texColor1 != null) {
+                    writeTuple(out, m.texColor1);
+                    writeTuple(out, m.texColor2);
+                }
+            }
+
+            // Lights (in world space)
+            out.writeInt(s.lights.size());
+            for (int i = 0; i < s.lights.size(); i++) {
+                Light l = s.lights.elementAt(i);
+
+                writeString(out, l.getName());
+                out.writeBoolean(l.isDirectional());
+                writeTuple(out, l.isDirectional() ? l.direction : l.position);
+                writeTuple(out, l.color);
+                writeTuple(out, l.attenuation);
+            }
+
+            // Shapes
+            out.writeInt(s.objects.size());
+            for (int i = 0; i < s.objects.size(); i++) {
+                Shape shape = s.objects.elementAt(i);
+
+                out.writeByte(shapeType(shape));
+                writeString(out, shape.getName());
+                out.writeInt(materialIndex.get(shape.getMaterialRef()));
+                if (shape instanceof Mesh)
+                  writeString(out, ((Mesh)shape).getFileName());
+
+                Matrix4d M = shape.M;
+                for (int row = 0; row < 4; row++)
+                  for (int col = 0; col < 4; col++)
+                    out.writeDouble(M.getElement(row, col));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte shapeType(Shape shape)
+        throws IOException
+    {
+        if (shape instanceof Sphere)
+          return SPHERE;
+        if (shape instanceof Box)
+          return BOX;
+        if (shape instanceof Cylinder)
+          return CYLINDER;
+        if (shape instanceof Cone)
+          return CONE;
+        if (shape instanceof Mesh)
+          return MESH;
+        throw new IOException("Cannot compile shape " +
+                              shape.getClass().getName());
+    }
+
+    /** write a string (or null) as its length and UTF-8 bytes */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException
+    {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void writeTuple(DataOutputStream out, Tuple3d t)
+        throws IOException
+    {
+        out.writeDouble(t.x);
+        out.writeDouble(t.y);
+        out.writeDouble(t.z);
+    }
+
+    //------------------------------------------------------------------------
+    // Reading
+
+    /** whether a file is a compiled scene (rather than a scene
+     *  description) */
+    public static boolean isCompiled(String fileName)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(new FileInputStream(fileName));
+        try {
+            return in.readInt() == magic;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** read a compiled scene into s (which should be freshly made -- its
+     *  materials are replaced by the ones in the file)
+     */
+    public static void read(String fileName, Scene s)
+        throws ParseException, IOException, NoSuchMethodException,
+        ClassNotFoundException,IllegalAccessException,
+        InvocationTargetException
+    {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+              throw new IOException("Compiled scene too large: " + fileName);
+
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY,
+                                              0, channel.size());
+            try {
+                read(in, s);
+            } catch (java.nio.BufferUnderflowException e) {
+                throw new EOFException("Truncated compiled scene: " +
+                                       fileName);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void read(MappedByteBuffer in, Scene s)
+        throws ParseException, IOException, NoSuchMethodException,
+        ClassNotFoundException,IllegalAccessException,
+        InvocationTargetException
+    {
+        if (in.getInt() != magic)
+          throw new IOException("Not a compiled scene");
+        int v = in.getInt();
+        if (v != version)
+          throw new IOException("Unsupported compiled scene version " + v);
+
+        // Camera
+        if (in.get() != 0) {
+            Camera c = new Camera();
+            c.setName(readString(in));
+            readTuple(in, c.eye);
+            readTuple(in, c.look);
+            readTuple(in, c.up);
+            c.fovy = in.getDouble();
+            c.near = in.getDouble();
+            s.camera = c;
+        }
+
+        // Materials
+        int materialCount = in.getInt();
+        Material[] materials = new Material[materialCount];
+        s.materials.clear();
+        for (int i = 0; i < materialCount; i++) {
+            Material m = new Material();
+            m.setName(readString(in));
+            readTuple(in, m.ambient);
+            readTuple(in, m.diffuse);
+            readTuple(in, m.specular);
+            readTuple(in, m.transparent);
+            m.index     = in.getDouble();
+            m.shininess = in.getDouble();
+
+            m.textureType     = readString(in);
+            m.textureFileName = readString(in);
+            m.textureScaleU   = in.getDouble();
+            m.textureScaleV   = in.getDouble();
+            if (in.get() != 0) {
+                m.texColor1 = new Vector3d();
+                m.texColor2 = new Vector3d();
+                readTuple(in, m.texColor1);
+                readTuple(in, m.texColor2);
+            }
+
+            materials[i] = m;
+            s.materials.addElement(m);
+        }
+
+        // Lights
+        int lightCount = in.getInt();
+        for (int i = 0; i < lightCount; i++) {
+            Light l = new Light();
+            l.setName(readString(in));
+            if (in.get() != 0) {
+                l.position  = null;
+                l.direction = new Vector3d();
+                readTuple(in, l.direction);
+            } else {
+                readTuple(in, l.position);
+            }
+            readTuple(in, l.color);
+            readTuple(in, l.attenuation);
+
+            s.lights.addElement(l);
+        }
+
+        // Shapes
+        int shapeCount = in.getInt();
+        s.objects.ensureCapacity(s.objects.size() + shapeCount);
+        double[] elements = new double[16];
+        Matrix4d M = new Matrix4d();
+        for (int i = 0; i < shapeCount; i++) {
+            byte type = in.get();
+            Shape shape;
+            switch (type) {
+            case SPHERE:   shape = new Sphere();   break;
+            case BOX:      shape = new Box();      break;
+            case CYLINDER: shape = new Cylinder(); break;
+            case CONE:     shape = new Cone();     break;
+            case MESH:     shape = new Mesh();     break;
+            default:
+                throw new IOException("Unknown shape type " + type);
+            }
+
+            shape.setName(readString(in));
+            int m = in.getInt();
+            if (m < 0 || m >= materialCount)
+              throw new IOException("Bad material index " + m);
+            shape.setMaterialName(materials[m].getName());
+            shape.setMaterialRef(materials[m]);
+
+            // (The triangles are needed for the world space bounds)
+            if (shape instanceof Mesh) {
+                Mesh mesh = (Mesh)shape;
+                mesh.setFileName(readString(in));
+                mesh.load();
+            }
+
+            for (int k = 0; k < 16; k++)
+              elements[k] = in.getDouble();
+            M.set(elements);
+            shape.setMatrix(M);
+
+            shape.parent = s.objects;
+            s.objects.addElement(shape);
+        }
+    }
+
+    private static String readString(MappedByteBuffer in)
+        throws IOException
+    {
+        int length = in.getInt();
+        if (length < 0)
+          return null;
+
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void readTuple(MappedByteBuffer in, Tuple3d t)
+    {
+        t.x = in.getDouble();
+        t.y = in.getDouble();
+        t.z = in.getDouble();
+    }
+}
@@ -0,0 +1,115 @@
+import static org.junit.Assert.*;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+
+public class CompiledSceneTest {
+
+	// Every kind of shape, a textured material, and both kinds of light,
+	// under a few transformations
+	static final String description =
+		"camera { eye = (0, 1, 2) look = (0, -0.2, -1) fovy = 60 }\n" +
+		"light { position = (0, 2, 5) attenuation = (1 0.1 0) }\n" +
+		"rotate { 30 (0, 1, 0) }\n" +
+		"light { direction = (1, 1, 1) color = (0.5 0.5 0.5) }\n" +
+		"material { name = board kd = (0.7 0.7 0.7) checker = (1 0 0) (0 1 0) 4 2 }\n" +
+		SceneTest.mirrors +
+		"push {}\ntranslate { (-2, 0, -3) }\ncylinder { material = board }\npop {}\n" +
+		"push {}\ntranslate { (2, 0, -3) }\nscale { (1, 2, 1) }\ncone { name = tip }\npop {}\n";
+
+	/** a size X size frame of a compiled scene */
+	static Scene load(File file) throws Exception {
+		Scene s = new Scene();
+		CompiledScene.read(file.getPath(), s);
+		s.setup();
+		s.camera.setup(SceneTest.size, SceneTest.size);
+		s.imageWidth = SceneTest.size;
+		s.imageHeight = SceneTest.size;
+		return s;
+	}
+
+	@Test
+	public void testCompiledSceneRendersTheSame() throws Exception {
+		Scene parsed = SceneTest.scene(description);
+		File file = File.createTempFile("scene", ".rtsc");
+		try {
+			CompiledScene.write(parsed, file.getPath());
+			assertTrue(CompiledScene.isCompiled(file.getPath()));
+			Scene loaded = load(file);
+
+			assertEquals(parsed.objects.size(), loaded.objects.size());
+			assertEquals(parsed.lights.size(), loaded.lights.size());
+			assertEquals(parsed.materials.size(), loaded.materials.size());
+			assertEquals("tip", loaded.objects.lastElement().getName());
+			assertTrue(loaded.getMaterial("board").texture instanceof CheckerTexture);
+
+			for (int i = 0; i < SceneTest.size; i++)
+				for (int j = 0; j < SceneTest.size; j++)
+					assertEquals(parsed.tracePixel(i, j), loaded.tracePixel(i, j));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSceneDescriptionIsNotCompiled() throws Exception {
+		File file = File.createTempFile("scene", ".txt");
+		try {
+			FileWriter out = new FileWriter(file);
+			out.write(description);
+			out.close();
+			assertFalse(CompiledScene.isCompiled(file.getPath()));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = EOFException.class)
+	public void testTruncatedFile() throws Exception {
+		File file = File.createTempFile("scene", ".rtsc");
+		try {
+			CompiledScene.write(SceneTest.scene(description), file.getPath());
+			RandomAccessFile f = new RandomAccessFile(file, "rw");
+			f.setLength(f.length() - 10);
+			f.close();
+
+			load(file);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testMeshesKeepTheirFile() throws Exception {
+		File obj = File.createTempFile("mesh", ".obj");
+		File file = File.createTempFile("scene", ".rtsc");
+		try {
+			FileWriter out = new FileWriter(obj);
+			out.write(MeshTest.cube);
+			out.close();
+
+			Scene parsed = SceneTest.scene(
+				"light { position = (1, 2, 5) }\n" +
+				"translate { (0, 0, -4) }\nrotate { 30 (1, 1, 0) }\n" +
+				"mesh { name = cube file = \"" + obj.getPath() + "\" }\n");
+			CompiledScene.write(parsed, file.getPath());
+			Scene loaded = load(file);
+
+			Mesh mesh = (Mesh)loaded.objects.firstElement();
+			assertEquals(obj.getPath(), mesh.getFileName());
+			assertEquals(12, mesh.getTriangleCount());
+
+			for (int i = 0; i < SceneTest.size; i++)
+				for (int j = 0; j < SceneTest.size; j++)
+					assertEquals(parsed.tracePixel(i, j), loaded.tracePixel(i, j));
+		} finally {
+			obj.delete();
+			file.delete();
+		}
+	}
+}
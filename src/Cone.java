@@ -23,6 +23,11 @@ class Cone extends Shape
 	read(tokenizer);
     }
 
+    /** constructor for a cone that is not read from a file */
+    public Cone()
+    {
+    }
+
     // -----------------------------------------------------------------------
 
     /** computes the ray intersection point of a cone with base radius 1
@@ -30,99 +35,130 @@ class Cone extends Shape
      */
     boolean hit(Ray r, ISect intersection, boolean all, double minT)
     {
-	ISect icone = new ISect(), icap1 = new ISect();
-	boolean hit_cone, hit_cap1;
+	// Normalized ray direction (r itself is left alone)
+	Point3d rp = r.getPoint();
+	Vector3d d = r.getDirection();
+	double dlen = Math.sqrt(d.x*d.x + d.y*d.y + d.z*d.z);
+	double norm = 1.0/dlen;
+	double dx = d.x*norm, dy = d.y*norm, dz = d.z*norm;
+
+	minT *= dlen;
+
+	// t of each part along the normalized ray (NaN if it is missed)
+	double tCone = hitConeCap(rp, dx, dy, dz, minT);
+	double tCap1 = hitCap1(rp, dx, dy, dz, minT);
 
-	hit_cone = hitConeCap(r, icone, all, minT);
-	hit_cap1 = hitCap1(r, icap1, all, minT);
+	boolean hit_cone = !Double.isNaN(tCone);
+	boolean hit_cap1 = !Double.isNaN(tCap1);
 
-	if (hit_cone && (!hit_cap1 || icone.t < icap1.t)) {
-	    intersection.set(icone);
-	} else if (hit_cap1 && (!hit_cone || icap1.t < icone.t)) {
-	    intersection.set(icap1);
+	// Compare t values along the original ray
+	double icone = tCone / dlen, icap1 = tCap1 / dlen;
+
+	double t;
+	if (hit_cone && (!hit_cap1 || icone < icap1)) {
+	    t = tCone;
+	    if (all) {
+		setHitPoint(intersection, rp, dx, dy, dz, t);
+		Point3d ip = intersection.getHitPoint();
+		Vector3d inorm = intersection.getNormal();
+
+		// inorm = ip x (ip x (0,0,1))
+		inorm.set(ip.y, -ip.x, 0);
+		inorm.set(ip.y*inorm.z - ip.z*inorm.y,
+			  inorm.x*ip.z - inorm.z*ip.x,
+			  ip.x*inorm.y - ip.y*inorm.x);
+		inorm.normalize();
+
+		uvConeCap(intersection);
+	    }
+	} else if (hit_cap1 && (!hit_cone || icap1 < icone)) {
+	    t = tCap1;
+	    if (all) {
+		setHitPoint(intersection, rp, dx, dy, dz, t);
+		intersection.getNormal().set(0, 0, 1);
+		uvPlane(intersection, 0, 1);
+	    }
 	} else {
 	    return false;
 	}
 
+	intersection.t = t / dlen;
 	intersection.setHitObject(this);
 
 	return true;
+    }
 
+    /** the cone fits in [-1, 1] x [-1, 1] x [0, 1] */
+    void getObjectBounds(Point3d min, Point3d max)
+    {
+	min.set(-1, -1, 0);
+	max.set(1, 1, 1);
     }
 
-    private boolean hitConeCap(Ray r, ISect intersection, boolean all,
-			       double minT)
+    double getTextureDensity()
     {
-	double dlen, a, b, c, d, t1, t2, z1, z2;
-	boolean t1bad, t2bad;
-	double epsilon = 1e-6;
+	// v runs along the unit height of the side
+	return 1.0;
+    }
 
-	Point3d rp = r.getPoint();
-	Vector3d rd = new Vector3d(r.getDirection());
-	dlen = rd.length();
-	rd.normalize();
+    /** hit point at t along the ray with normalized direction d */
+    private static void setHitPoint(ISect intersection, Point3d rp,
+				    double dx, double dy, double dz, double t)
+    {
+	intersection.getHitPoint().set(t * dx + rp.x,
+				       t * dy + rp.y,
+				       t * dz + rp.z);
+    }
 
-	minT *= dlen;
+    /** t where the ray with normalized direction d first hits the side
+     *  of the cone, or NaN if it does not
+     */
+    private static double hitConeCap(Point3d rp, double dx, double dy,
+				     double dz, double minT)
+    {
+	double a, b, c, d, t1, t2, z1, z2;
+	boolean t1bad, t2bad;
+	double epsilon = 1e-6;
 
- 	a = rd.x * rd.x + rd.y * rd.y - rd.z * rd.z;
-	b = rd.x * rp.x + rd.y * rp.y - rd.z * rp.z;
+ 	a = dx * dx + dy * dy - dz * dz;
+	b = dx * rp.x + dy * rp.y - dz * rp.z;
 	c = rp.x * rp.x + rp.y * rp.y - rp.z * rp.z;
 
 	if (Math.abs(a) < epsilon) {
 	    /* One intersection point */
 	    t1 = -0.5*c / b;
-	    z1 = rp.z + t1 * rd.z;
+	    z1 = rp.z + t1 * dz;
 
 	    if (t1 < minT || z1 < 0 || z1 > 1)
-	      return false;
+	      return Double.NaN;
 
-	    intersection.t = t1;
-	} else {
-	    d = b*b - a*c;
-
-	    if (d < 0.0)
-	      return false;
-	    d = Math.sqrt(d);
-
-	    t1 = (-b + d) / a;
-	    t2 = (-b - d) / a;
-
-	    z1 = rp.z + t1 * rd.z;
-	    z2 = rp.z + t2 * rd.z;
-
-	    t1bad = (t1 < minT || z1 < 0.0 || z1 > 1.0);
-	    t2bad = (t2 < minT || z2 < 0.0 || z2 > 1.0);
-
-	    if (t1bad && t2bad) {
-		return false;
-	    } else if (t1bad) {
-		intersection.t = t2;
-	    } else if (t2bad) {
-		intersection.t = t1;
-	    } else {
-		intersection.t = (t1 < t2) ? t1 : t2;
-	    }
+	    return t1;
 	}
 
-	if (all) {
-	    Point3d ipoint = intersection.getHitPoint();
-	    Vector3d inorm = intersection.getNormal();
+	d = b*b - a*c;
 
-	    ipoint.scale(intersection.t, rd);
-	    ipoint.add(rp);
+	if (d < 0.0)
+	  return Double.NaN;
+	d = Math.sqrt(d);
 
-	    Vector3d ipv = new Vector3d(ipoint);
+	t1 = (-b + d) / a;
+	t2 = (-b - d) / a;
 
-	    inorm.cross(ipv, new Vector3d(0,0,1));
-	    inorm.cross(ipv, inorm);
-	    inorm.normalize();
+	z1 = rp.z + t1 * dz;
+	z2 = rp.z + t2 * dz;
 
-	    uvConeCap(intersection);
-	}
-
-	intersection.t /= dlen;
+	t1bad = (t1 < minT || z1 < 0.0 || z1 > 1.0);
+	t2bad = (t2 < minT || z2 < 0.0 || z2 > 1.0);
 
-	return true;
+	if (t1bad && t2bad) {
+	    return Double.NaN;
+	} else if (t1bad) {
+	    return t2;
+	} else if (t2bad) {
+	    return t1;
+	} else {
+	    return (t1 < t2) ? t1 : t2;
+	}
     }
 
     private void uvConeCap(ISect intersection)
@@ -151,54 +187,39 @@ class Cone extends Shape
 	intersection.getDpDv().normalize();
     }
 
-    private boolean hitCap1(Ray r, ISect intersection, boolean all, 
-			    double minT)
+    /** t where the ray with normalized direction d hits the base at
+     *  z = 1, or NaN if it does not
+     */
+    private static double hitCap1(Point3d rp, double dx, double dy,
+				  double dz, double minT)
     {
-	double pz, dz, t, dlen;
-	Point3d rp = r.getPoint();
-	Vector3d rd = new Vector3d(r.getDirection());
-	dlen = rd.length();
-	rd.normalize();
-
-	minT *= dlen;
+	double pz, t;
 
 	pz = rp.z;
-	dz = rd.z;
 
 	if (dz == 0.0)
-	  return false;
+	  return Double.NaN;
 
 	t = (1 - pz) / dz;
 
 	if (t < minT)
-	  return false;
+	  return Double.NaN;
 
-	Point3d ipoint = intersection.getHitPoint();
-	ipoint.scale(t, rd);
-	ipoint.add(rp);
+	double x = t * dx + rp.x;
+	double y = t * dy + rp.y;
 
-	if (ipoint.x * ipoint.x + ipoint.y * ipoint.y <= 1.0) {
-	    intersection.t = t / dlen;
+	if (x * x + y * y <= 1.0)
+	  return t;
 
-	    if (all) {
-		intersection.getNormal().set(0, 0, 1);
-		
-		uvPlane(intersection, 0, 1);
-	    }
-	} else {
-	    return false;
-	}
-
-	return true;
+	return Double.NaN;
     }
 
     private void uvPlane(ISect intersection, int x, int y)
     {
-	double[] ipoint = new double[3];
-	intersection.getHitPoint().get(ipoint);
+	Point3d ipoint = intersection.getHitPoint();
 	
-	intersection.setU((ipoint[x]+1.0)/2);
-	intersection.setV((ipoint[y]+1.0)/2);
+	intersection.setU(((x == 0 ? ipoint.x : (x == 1 ? ipoint.y : ipoint.z))+1.0)/2);
+	intersection.setV(((y == 0 ? ipoint.x : (y == 1 ? ipoint.y : ipoint.z))+1.0)/2);
 	
 	intersection.getDpDu().set(x == 0 ? 1 : 0,
 				   x == 1 ? 1 : 0,
@@ -0,0 +1,128 @@
+/* class CostMap
+ * The cost of rendering each pixel of a frame: the number of rays traced
+ * for it (of every kind, shadow rays included), or the time it took
+ *
+ * It is saved as a false color image, on a log scale from the cheapest
+ * pixel of the frame (dark blue) to the most expensive one (red), so
+ * that the expensive parts of a scene (behind glass, along the edges
+ * adaptive sampling refines) stand out.
+ */
+import java.io.*;
+
+class CostMap
+{
+    // What is measured
+    static final int NONE = 0;
+    static final int RAYS = 1;
+    static final int TIME = 2;
+
+    // Colors of the false color scale, from cheap to expensive
+    private static final float[][] scale = {
+        { 0, 0, 0.3f }, { 0, 0, 1 }, { 0, 1, 1 }, { 1, 1, 0 }, { 1, 0, 0 }
+    };
+
+    int measure;
+    int width  = 0;
+    int height = 0;
+    // Cost of pixel (i,j) at cost[j*width + i]
+    float[] cost;
+
+    //------------------------------------------------------------------------
+
+    public CostMap(int newMeasure, int newWidth, int newHeight)
+    {
+        measure = newMeasure;
+        width   = newWidth;
+        height  = newHeight;
+        cost    = new float[width * height];
+    }
+
+    /** the measure with the given name ("rays" or "time") */
+    static int measureNamed(String name)
+    {
+        if (name.equals("rays"))
+          return RAYS;
+        if (name.equals("time"))
+          return TIME;
+        throw new IllegalArgumentException("Unknown cost measure: " + name);
+    }
+
+    /** the name of the cost map saved with the image in fileName
+     *  (out.ppm gives out-cost.ppm)
+     */
+    static String fileNameFor(String fileName)
+    {
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= fileName.lastIndexOf(File.separatorChar))
+          dot = fileName.length();
+        return fileName.substring(0, dot) + "-cost.ppm";
+    }
+
+    //------------------------------------------------------------------------
+    // Recording (each pixel is recorded by the thread rendering it)
+
+    /** the current reading of the measure, for a thread counting into
+     *  stats -- the cost of a pixel is the difference of the readings
+     *  before and after it
+     */
+    long reading(RenderStats stats)
+    {
+        return measure == TIME ? System.nanoTime() : stats.rays();
+    }
+
+    /** add to the cost of pixel (i,j), given the reading before the work
+     *  done for it
+     */
+    void record(int i, int j, long start, RenderStats stats)
+    {
+        cost[j*width + i] += reading(stats) - start;
+    }
+
+    public double getCost(int i, int j)
+    {
+        return cost[j*width + i];
+    }
+
+    /** the cost of the whole frame */
+    public double getTotal()
+    {
+        double total = 0;
+        for (int k = 0; k < cost.length; k++)
+          total += cost[k];
+        return total;
+    }
+
+    //------------------------------------------------------------------------
+    // Output
+
+    /** the costs as a false color image */
+    public RGBImage toImage()
+    {
+        float min = Float.MAX_VALUE, max = 0;
+        for (int k = 0; k < cost.length; k++) {
+            min = Math.min(min, cost[k]);
+            max = Math.max(max, cost[k]);
+        }
+
+        // Position of each cost on the scale, from log(1+min) to log(1+max)
+        double low = Math.log1p(min), range = Math.log1p(max) - low;
+
+        RGBImage image = new RGBImage(width, height);
+        for (int k = 0; k < cost.length; k++) {
+            double x = range > 0 ? (Math.log1p(cost[k]) - low) / range : 0;
+            x *= scale.length - 1;
+
+            int s = Math.min((int)x, scale.length - 2);
+            float f = (float)(x - s);
+            for (int c = 0; c < 3; c++)
+              image.data[3*k + c] = (1 - f) * scale[s][c] + f * scale[s+1][c];
+        }
+        return image;
+    }
+
+    /** save the costs as a false color PPM file */
+    public void write(String fileName)
+    {
+        toImage().write(fileName);
+    }
+}
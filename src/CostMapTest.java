@@ -0,0 +1,58 @@
+import static org.junit.Assert.*;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+
+public class CostMapTest {
+
+	@Test
+	public void testRaysAddUpToTheFrame() throws Exception {
+		Scene s = SceneTest.scene(SceneTest.mirrors);
+		s.costMeasure = CostMap.RAYS;
+
+		for (boolean adaptive : new boolean[] { false, true }) {
+			s.render(SceneTest.size, SceneTest.size, false, adaptive, 2);
+			CostMap costs = s.costMap;
+			assertEquals(s.frameStats.rays(), costs.getTotal(), 0);
+
+			// Every pixel traces at least one ray, and the middle (behind
+			// the glass sphere) costs more than the corner (the mirror)
+			int n = SceneTest.size;
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < n; j++)
+					assertTrue(costs.getCost(i, j) >= 1);
+			assertTrue(costs.getCost(n / 2, n / 2) > costs.getCost(0, 0));
+		}
+
+		// Not measured unless asked for
+		s.costMeasure = CostMap.NONE;
+		s.render(SceneTest.size, SceneTest.size, false, false, 1);
+		assertNull(s.costMap);
+	}
+
+	@Test
+	public void testFalseColors() {
+		CostMap costs = new CostMap(CostMap.RAYS, 3, 1);
+		costs.cost[0] = 2;
+		costs.cost[1] = 1000;
+		costs.cost[2] = 30;
+
+		RGBImage image = costs.toImage();
+		assertEquals(new Vector3d(0, 0, 0.3f), image.getPixel(0, 0));
+		assertEquals(new Vector3d(1, 0, 0), image.getPixel(1, 0));
+
+		// Somewhere in between (on a log scale, so past the middle)
+		Vector3d middle = image.getPixel(2, 0);
+		assertTrue(middle.toString(), middle.y > 0.5);
+	}
+
+	@Test
+	public void testFileNames() {
+		assertEquals("out-cost.ppm", CostMap.fileNameFor("out.ppm"));
+		assertEquals("out-cost.ppm", CostMap.fileNameFor("out"));
+		assertEquals("a.b/out-cost.ppm", CostMap.fileNameFor("a.b/out"));
+		assertEquals(CostMap.TIME, CostMap.measureNamed("time"));
+	}
+}
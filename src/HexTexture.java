@@ -0,0 +1,36 @@
+/* class HexTexture
+ * Procedural pattern of two colors in staggered rows
+ */
+import javax.vecmath.*;
+
+final class HexTexture extends Texture
+{
+    final double r1, g1, b1;
+    final double r2, g2, b2;
+    final double scaleU, scaleV;
+
+    public HexTexture(Tuple3d color1, Tuple3d color2,
+                      double scaleU, double scaleV)
+    {
+        r1 = color1.x; g1 = color1.y; b1 = color1.z;
+        r2 = color2.x; g2 = color2.y; b2 = color2.z;
+        this.scaleU = scaleU;
+        this.scaleV = scaleV;
+    }
+
+    void color(double u, double v, double footprint, Tuple3d target)
+    {
+        boolean first;
+
+        // Clamp to nearest row (every other row is shifted by half)
+        if (Math.round(u * scaleU) % 2 == 0)
+          first = Math.round(v * scaleV) % 2 == 0;
+        else
+          first = Math.round(v * 2 * scaleV) % 2 != 0;
+
+        if (first)
+          target.set(r1, g1, b1);
+        else
+          target.set(r2, g2, b2);
+    }
+}
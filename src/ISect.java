@@ -24,6 +24,10 @@ public class ISect
     double u = 0.0;
     double v = 0.0;
 
+    // width of the ray at the intersection, in (u,v) units (for
+    // filtering textures)
+    double footprint = 0.0;
+
     // surface derivatives along U anv V
     Vector3d dPdU = new Vector3d();
     Vector3d dPdV = new Vector3d();
@@ -57,11 +61,29 @@ public class ISect
 
         u = other.u;
         v = other.v;
+        footprint = other.footprint;
 
         dPdU.set(other.dPdU);
         dPdV.set(other.dPdV);
     }
 
+    // Reset to a fresh intersection (no hit object, everything 0)
+    void clear()
+    {
+        hitObject = null;
+        t = 0.0;
+
+        hitPoint.set(0, 0, 0);
+        normal.set(0, 0, 0);
+
+        u = 0.0;
+        v = 0.0;
+        footprint = 0.0;
+
+        dPdU.set(0, 0, 0);
+        dPdV.set(0, 0, 0);
+    }
+
     public String toString()
     {
         String Result = new String();
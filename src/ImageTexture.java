@@ -0,0 +1,36 @@
+/* class ImageTexture
+ * Texture image, repeated over the surface, and filtered through its
+ * mip map by the footprint of each sample
+ */
+import javax.vecmath.*;
+
+final class ImageTexture extends Texture
+{
+    final MipTexture mip;
+    final double scaleU, scaleV;
+
+    // Footprints grow with the number of repeats
+    final double footprintScale;
+
+    public ImageTexture(MipTexture mip, double scaleU, double scaleV)
+    {
+        this.mip    = mip;
+        this.scaleU = scaleU;
+        this.scaleV = scaleV;
+        footprintScale = Math.max(scaleU, scaleV);
+    }
+
+    void color(double u, double v, double footprint, Tuple3d target)
+    {
+        mip.sample(wrap(u * scaleU), wrap(v * scaleV),
+                   footprint * footprintScale, target);
+    }
+
+    /** x repeated into [0,1) (also for negative x, which % keeps
+     *  negative)
+     */
+    static double wrap(double x)
+    {
+        return x - Math.floor(x);
+    }
+}
@@ -4,6 +4,7 @@
  * Doug DeCarlo
  */
 import java.io.*;
+import java.util.*;
 import java.text.ParseException;
 import java.lang.reflect.*;
 import javax.vecmath.*;
@@ -28,6 +29,34 @@ class Light extends RaytracerObject
     //    - ambient light is not attenuated
     Vector3d attenuation = new Vector3d(1.0, 0.0, 0.0);
 
+    /** parameters of a light */
+    static final HashMap<String, ParamSpec> paramSpecs =
+        paramTable(RaytracerObject.paramSpecs,
+            new ParamSpec("position") {
+                void read(StreamTokenizer tokenizer, RaytracerObject target)
+                    throws ParseException, IOException {
+                    ((Light)target).setPosition(Parser.readPoint3d(tokenizer));
+                }
+            },
+            new ParamSpec("direction") {
+                void read(StreamTokenizer tokenizer, RaytracerObject target)
+                    throws ParseException, IOException {
+                    ((Light)target).setDirection(Parser.readVector3d(tokenizer));
+                }
+            },
+            new ParamSpec("color") {
+                void read(StreamTokenizer tokenizer, RaytracerObject target)
+                    throws ParseException, IOException {
+                    ((Light)target).setColor(Parser.readVector3d(tokenizer));
+                }
+            },
+            new ParamSpec("attenuation") {
+                void read(StreamTokenizer tokenizer, RaytracerObject target)
+                    throws ParseException, IOException {
+                    ((Light)target).setAttenuation(Parser.readVector3d(tokenizer));
+                }
+            });
+
     //------------------------------------------------------------------------
 
     /** constructor that reads the content of the object from the tokenizer */
@@ -38,25 +67,23 @@ class Light extends RaytracerObject
     {
         super(tokenizer);
 
-        // add the parameters
-        addSpec("position",     "setPosition",
-                position.getClass().getName());
-        addSpec("direction",    "setDirection", 
-                (new Vector3d()).getClass().getName());
-        addSpec("color",        "setColor",
-                color.getClass().getName());
-        addSpec("attenuation",  "setAttenuation",
-                attenuation.getClass().getName());
-
         // read the content of this object
         read(tokenizer);
     }
 
+    /** constructor for a light that is not read from a file */
+    Light()
+    {
+    }
+
+    HashMap<String, ParamSpec> getParamSpecs() { return paramSpecs; }
+
     /** transform light location given matrix m */
     public void transform(Matrix4d m)
     {
         if (isDirectional()) {
             m.transform(direction);
+            direction.normalize();
         } else {
             m.transform(position);
         }
@@ -111,84 +138,4 @@ class Light extends RaytracerObject
         out.println("Color       : " + color       );
         out.println("Attenuation : " + attenuation );
     }
-
-    //------------------------------------------------------------------------
-
-    /** compute the resulting color at an intersection point for
-     *  _this_ light, which has been tinted (from shadowing), and given
-     *  the ray that led to the intersection (which can be traced back
-     *  to the camera location)
-     *
-     * The computation does the following:
-     *  - computes ambient, diffuse and specular (Phong model) illumination
-     *  - uses material color (Ka, Kd, Ks) and texture
-     *  - handles both directional and (attenuated) point light sources
-     *    (which are affected by shadows using 'tint')
-     *
-     * The 'tint' is used to specify the amount of the light that is being
-     * let through to the intersection point.  An exposed light has a tint
-     * of (1,1,1) and an occluded light has a tint of (0,0,0) -- intermediate
-     * values can result from intervening transparent objects.
-     * The tint does not affect the ambient light.
-     */
-    Vector3d compute(ISect intersection, Vector3d tint, Ray r)
-    {
-        // Material for this object
-        Material mat = intersection.getHitObject().getMaterialRef();
-        
-        // ...
-
-        Vector3d lightDir = new Vector3d();
-        if (this.direction == null) {
-        	lightDir.set(this.position);
-        	lightDir.sub(intersection.hitPoint);
-        } else {
-        	lightDir.set(this.direction);
-        }
-        lightDir.normalize();
-        
-        // Compute color
-        Vector3d color = new Vector3d();
-        // Ambient component
-        color.set(mat.getKa());
-        
-        // Diffuse component
-        Vector3d diffuse = new Vector3d(mat.getKd());
-        double dotval = intersection.getNormal().dot(lightDir);
-        diffuse.scale(Math.max(0, dotval));
-        Tools.termwiseMul3d(diffuse, tint);
-        
-        // Attenuate light
-        if (this.position != null) {
-	        double dsquared = intersection.hitPoint.distanceSquared(this.position);
-	        diffuse.scale(1 / (attenuation.x + attenuation.y * Math.sqrt(dsquared) + attenuation.z * dsquared));
-        }
-        
-        // Account for texture
-        if (mat.hasTexture()) {
-        	Tools.termwiseMul3d(diffuse, mat.getTextureColor(intersection.u, intersection.v));
-        }
-
-        color.add(diffuse);
-        
-        
-     	// Specular component
-        Vector3d specular = new Vector3d(mat.getKs());
-        if (dotval >= 0) {
-        	// The reflected light ray
-        	Vector3d reflect = new Vector3d();
-        	Tools.reflect(reflect, lightDir, intersection.getNormal());
-        	reflect.negate();
-        	dotval = reflect.dot(r.direction);
-        	dotval = Math.max(0, dotval);
-        	dotval = Math.pow(dotval, mat.getShiny());
-        	specular.scale(dotval);
-        	color.add(specular);
-        }
-        
-        
-        return color;
-
-        // ...
-    }
 }
@@ -33,7 +33,9 @@ class Material extends RaytracerObject
     
     // Texture image specification
     String textureFileName     = null;
-    RGBImage textureImage      = null;
+    // Texture image, with its prefiltered copies (from the texture cache,
+    // shared with other materials using the same file)
+    MipTexture textureMip      = null;
 
     // Texture repeating factors
     double textureScaleU       = 1.0;
@@ -45,18 +47,85 @@ class Material extends RaytracerObject
     
     String textureType     = null;
 
+    // The texture, compiled from the specification by setup() (null for
+    // an untextured material)
+    Texture texture        = null;
+
+    /** parameters of a material */
+    static final HashMap<String, ParamSpec> paramSpecs =
+	paramTable(RaytracerObject.paramSpecs,
+	    new ParamSpec("ka") {
+		void read(StreamTokenizer tokenizer, RaytracerObject target)
+		    throws ParseException, IOException {
+		    ((Material)target).setKa(Parser.readVector3d(tokenizer));
+		}
+	    },
+	    new ParamSpec("kd") {
+		void read(StreamTokenizer tokenizer, RaytracerObject target)
+		    throws ParseException, IOException {
+		    ((Material)target).setKd(Parser.readVector3d(tokenizer));
+		}
+	    },
+	    new ParamSpec("ks") {
+		void read(StreamTokenizer tokenizer, RaytracerObject target)
+		    throws ParseException, IOException {
+		    ((Material)target).setKs(Parser.readVector3d(tokenizer));
+		}
+	    },
+	    new ParamSpec("kt") {
+		void read(StreamTokenizer tokenizer, RaytracerObject target)
+		    throws ParseException, IOException {
+		    ((Material)target).setKt(Parser.readVector3d(tokenizer));
+		}
+	    },
+	    new ParamSpec("index") {
+		void read(StreamTokenizer tokenizer, RaytracerObject target)
+		    throws ParseException, IOException {
+		    ((Material)target).setIndex(Parser.readDouble(tokenizer));
+		}
+	    },
+	    new ParamSpec("shiny") {
+		void read(StreamTokenizer tokenizer, RaytracerObject target)
+		    throws ParseException, IOException {
+		    ((Material)target).setShiny(Parser.readDouble(tokenizer));
+		}
+	    },
+	    new ParamSpec("texture") {
+		void read(StreamTokenizer tokenizer, RaytracerObject target)
+		    throws ParseException, IOException {
+		    ((Material)target).setTextureSpec(readTextureSpec(tokenizer));
+		}
+	    },
+	    new ParamSpec("checker") {
+		void read(StreamTokenizer tokenizer, RaytracerObject target)
+		    throws ParseException, IOException {
+		    ((Material)target).setCheckerSpec(readCheckerSpec(tokenizer));
+		}
+	    },
+	    new ParamSpec("hexagonal") {
+		void read(StreamTokenizer tokenizer, RaytracerObject target)
+		    throws ParseException, IOException {
+		    ((Material)target).setHexSpec(readHexSpec(tokenizer));
+		}
+	    },
+	    new ParamSpec("stripe") {
+		void read(StreamTokenizer tokenizer, RaytracerObject target)
+		    throws ParseException, IOException {
+		    ((Material)target).setStripeSpec(readStripeSpec(tokenizer));
+		}
+	    });
+
     // ----------------------------------------------------------------------
 
     /** Steps for adding a custom material:
      *   - add class variables for specifying material
-     *   - write a setXXXSpec() and readXXXSpec() method, and
-     *     pass it, along with the material name XXX to addSpecSpecial()
-     *     in the Material(tokenizer) constructor
-     *   - add a check (using ||) in hasTexture()
-     *   - put in another check in getTextureColor() that will call
-     *     getXXXColor(u,v)
+     *   - write a setXXXSpec() and readXXXSpec() method, and add a
+     *     ParamSpec for the keyword XXX that calls them to paramSpecs
+     *   - set textureType to a new name in setXXXSpec()
+     *   - write a XXXTexture class (extending Texture) that computes
+     *     the color, and put in another case in compileTexture() that
+     *     makes one
      *   - if it needs an image, add that to the setup() method
-     *   - add variables and methods 
      */
 
     /** constructor for default material */
@@ -72,6 +141,12 @@ class Material extends RaytracerObject
 	diffuse = new Vector3d(0.8, 0.8, 0.8);
     }
 
+    /** constructor for a material that is not read from a file (set up
+     *  through its accessors) */
+    Material()
+    {
+    }
+
     /** constructor that reads the content of the object from the tokenizer */
     public Material(StreamTokenizer tokenizer)
            throws ParseException, IOException, NoSuchMethodException,
@@ -80,40 +155,63 @@ class Material extends RaytracerObject
     {
 	super(tokenizer);
 
-	// add the parameters
-	addSpec("ka", "setKa", ambient.getClass().getName());
-	addSpec("kd", "setKd", diffuse.getClass().getName());
-	addSpec("ks", "setKs", specular.getClass().getName());
-	addSpec("kt", "setKt", transparent.getClass().getName());
-	addSpec("index", "setIndex", "java.lang.Double");
-	addSpec("shiny", "setShiny", "java.lang.Double");
-
-	addSpecSpecial("texture", "setTextureSpec", "readTextureSpec");
-	addSpecSpecial("checker", "setCheckerSpec", "readCheckerSpec");
-	addSpecSpecial("hexagonal", "setHexSpec", "readHexSpec");
-	addSpecSpecial("stripe", "setStripeSpec", "readStripeSpec");
-
 	// read the content of this object
 	read(tokenizer);
     }
 
+    HashMap<String, ParamSpec> getParamSpecs() { return paramSpecs; }
+
     /** Set up materials (read in textures) */
     public void setup(boolean verbose)
     {
-        // read the texture file
-        if (textureFileName != null) {
+        // read the texture file (unless it is already loaded)
+        if (textureFileName != null && textureMip == null) {
             try {
-		if (verbose)
-		  System.out.println("Loading texture " + textureFileName);
-
-                textureImage = new RGBImage(textureFileName);
+                textureMip = TextureCache.acquire(textureFileName, verbose);
             } catch (IOException E) {
                 System.err.println("Error while reading file " + 
 				   textureFileName);
-                textureImage = null;
+                textureMip = null;
                 textureFileName = null;
+                textureType = null;
             }
 	}
+
+        texture = compileTexture();
+    }
+
+    /** make the texture evaluator for the texture specification */
+    private Texture compileTexture()
+    {
+	if (textureType == null)
+	  return null;
+
+	switch (textureType) {
+	case "checker":
+	    return new CheckerTexture(texColor1, texColor2,
+				      textureScaleU, textureScaleV);
+	case "hex":
+	    return new HexTexture(texColor1, texColor2,
+				  textureScaleU, textureScaleV);
+	case "stripe":
+	    return new StripeTexture(texColor1, texColor2, textureScaleV);
+	case "image":
+	    return new ImageTexture(textureMip, textureScaleU, textureScaleV);
+	default:
+	    // Illegal texture specification
+	    System.err.println("Unknown texture specification");
+	    return null;
+	}
+    }
+
+    /** Let go of the texture (once the material is no longer used) */
+    public void release()
+    {
+        if (textureMip != null) {
+            TextureCache.release(textureMip);
+            textureMip = null;
+        }
+        texture = null;
     }
 
     // accessors
@@ -140,31 +238,31 @@ class Material extends RaytracerObject
 
     //------------------------------------------------------------------------
 
-    /** Check if any valid texture is present */
+    /** Check if any valid texture is present (once set up) */
     public boolean hasTexture()
     {
-	return textureImage != null || textureType != null;
+	return texture != null;
     }
 
     /** returns the texture color corresponding to the u, v coordinates */
     public Vector3d getTextureColor(double u, double v)
     {
-	switch (textureType) {
-	case "checker":
-		return getCheckerColor(u,v);
-	case "hex":
-		return getHexColor(u, v);
-	case "stripe":
-		return getStripeColor(u, v);
-	default:
-		if (textureImage != null)
-			return getTextureImageColor(u,v);
-		else {
-		    // Illegal texture specification
-			System.err.println("Unknown texture specification");
-	    	return null;
-		}
-	}
+	Vector3d color = new Vector3d();
+	return getTextureColor(u, v, 0, color) ? color : null;
+    }
+
+    /** puts the texture color corresponding to the u, v coordinates in
+     *  target, for a sample that covers footprint (in u, v units); returns
+     *  false if there is no valid texture
+     */
+    public boolean getTextureColor(double u, double v, double footprint,
+				   Tuple3d target)
+    {
+	if (texture == null)
+	  return false;
+
+	texture.color(u, v, footprint, target);
+	return true;
     }
 
     //------------------------------------------------------------------------
@@ -186,18 +284,12 @@ class Material extends RaytracerObject
     // Setter
     public void setTextureSpec(Vector v)
     {
+	textureType     = "image";
 	textureFileName = (String)v.elementAt(0);
 	textureScaleU   = ((Double)v.elementAt(1)).doubleValue();
 	textureScaleV   = ((Double)v.elementAt(2)).doubleValue();
     }
 
-    /** returns the image color corresponding to the u, v coordinates */
-    public Vector3d getTextureImageColor(double u, double v)
-    {
-	return textureImage.getSubPixel((u * textureScaleU) % 1,
-					(v * textureScaleV) % 1);
-    }
-
     //------------------------------------------------------------------------
     // Procedural checker texture
 
@@ -222,18 +314,8 @@ class Material extends RaytracerObject
 	textureScaleU   = ((Double)v.elementAt(2)).doubleValue();
 	textureScaleV   = ((Double)v.elementAt(3)).doubleValue();
     }
-    public Vector3d getCheckerColor(double u, double v)
-    {
-	double scu = textureScaleU, scv = textureScaleV;
 
-	if ((int)(Math.floor(u * scu) + Math.floor(v * scv)) % 2 == 0) {
-	    return texColor1;
-	} else {
-	    return texColor2;
-	}
-    }
-    
-  //------------------------------------------------------------------------
+    //------------------------------------------------------------------------
     // Procedural stripe texture
 
     public static Vector readStripeSpec(StreamTokenizer tokenizer)
@@ -257,18 +339,7 @@ class Material extends RaytracerObject
 	textureScaleU   = ((Double)v.elementAt(2)).doubleValue();
 	textureScaleV   = ((Double)v.elementAt(3)).doubleValue();
     }
-    public Vector3d getStripeColor(double u, double v)
-    {
-	double scv = textureScaleV;
 
-	if ((int)(Math.floor(v * scv)) % 2 == 0) {
-	    return texColor1;
-	} else {
-	    return texColor2;
-	}
-    }
-    
-    
     //------------------------------------------------------------------------
     // Procedural spot texture
 
@@ -293,23 +364,6 @@ class Material extends RaytracerObject
 	textureScaleU   = ((Double)v.elementAt(2)).doubleValue();
 	textureScaleV   = ((Double)v.elementAt(3)).doubleValue();
     }
-    public Vector3d getHexColor(double u, double v)
-    {
-	double scu = textureScaleU, scv = textureScaleV;
-
-	// Clamp to nearest row
-	if (Math.round(u * scu) % 2 == 0) {
-		if (Math.round(v * scv) % 2 == 0)
-			return texColor1;
-		else
-			return texColor2;
-	} else {
-		if (Math.round(v * 2 * scv) % 2 == 0)
-			return texColor2;
-		else
-			return texColor1;
-	}
-    }
 
     //------------------------------------------------------------------------
 
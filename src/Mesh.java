@@ -0,0 +1,539 @@
+/* class Mesh
+ * Ray-object intersections for a triangle mesh, read from a Wavefront
+ * OBJ file
+ *
+ * The triangles are stored in flat arrays of floats and vertex indices
+ * (not as objects), with a bounding volume hierarchy over them laid out
+ * the same way as the scene's BVH.  The triangles are reordered so the
+ * leaves of the hierarchy refer to consecutive runs of them.
+ *
+ * The normals of the faces follow the order of their corners
+ * (counterclockwise as seen from outside), unless the file gives vertex
+ * normals.  Without texture coordinates in the file, (u,v) are the
+ * barycentric coordinates of the hit point in its triangle.
+ */
+import java.io.*;
+import java.util.*;
+import javax.vecmath.*;
+import java.text.ParseException;
+import java.lang.reflect.*;
+
+class Mesh extends Shape
+{
+    public static String keyword = "mesh";
+
+    // Maximum number of triangles in a leaf
+    static final int leafSize = 4;
+
+    // Name of the OBJ file
+    String fileName = null;
+
+    // Vertex positions and normals (x, y, z for each), and texture
+    // coordinates (u, v for each) -- normals and texture coordinates are
+    // null if the file has none
+    float[] positions = new float[0];
+    float[] normals   = null;
+    float[] texCoords = null;
+
+    // Triangles: index of the position, normal and texture coordinates of
+    // each corner (3 per triangle; the normal and texture coordinate
+    // index is -1 where the file leaves it out)
+    int[] triangles   = new int[0];
+    int[] normalIndex = null;
+    int[] texIndex    = null;
+    int triangleCount = 0;
+
+    // Node bounds (minX, minY, minZ, maxX, maxY, maxZ for each node)
+    float[] bounds = new float[0];
+
+    // Interior nodes: index of the second child; leaves: -1
+    int[] secondChild = new int[0];
+
+    // Leaves: triangles [first, first+count)
+    int[] first = new int[0];
+    int[] count = new int[0];
+
+    int nodeCount = 0;
+
+    // Deepest path in the tree (sizes the traversal stack)
+    int depth = 0;
+
+    // Traversal stack of each thread
+    private final ThreadLocal<Traversal> traversal =
+        new ThreadLocal<Traversal>() {
+            protected Traversal initialValue() {
+                return new Traversal(depth + 1);
+            }
+        };
+
+    /** nodes still to visit, with the t where the ray enters them */
+    private static class Traversal
+    {
+        final int[]    nodes;
+        final double[] enter;
+
+        Traversal(int size)
+        {
+            nodes = new int[size];
+            enter = new double[size];
+        }
+    }
+
+    /** parameters of a mesh */
+    static final HashMap<String, ParamSpec> paramSpecs =
+	paramTable(Shape.paramSpecs,
+	    new ParamSpec("file") {
+		void read(StreamTokenizer tokenizer, RaytracerObject target)
+		    throws ParseException, IOException {
+		    ((Mesh)target).setFileName(Parser.readString(tokenizer));
+		}
+	    });
+
+    //------------------------------------------------------------------------
+
+    public Mesh(StreamTokenizer tokenizer)
+	throws ParseException, IOException, NoSuchMethodException,
+	       ClassNotFoundException,IllegalAccessException,
+	       InvocationTargetException
+    {
+	super(tokenizer);
+	read(tokenizer);
+
+	// The triangles have to be there before the transformation is set
+	// (for the world space bounds)
+	if (fileName == null)
+	  throw new ParseException("Mesh without a file", tokenizer.lineno());
+	try {
+	    load();
+	} catch (IOException e) {
+	    throw new ParseException("Cannot read mesh " + fileName + ": " +
+				     e.getMessage(), tokenizer.lineno());
+	}
+    }
+
+    /** constructor for a mesh that is not read from a file (set up with
+     *  setFileName() and load())
+     */
+    public Mesh()
+    {
+    }
+
+    HashMap<String, ParamSpec> getParamSpecs() { return paramSpecs; }
+
+    public String getFileName()            { return fileName; }
+    public void   setFileName(String name) { fileName = name; }
+
+    public int getTriangleCount() { return triangleCount; }
+
+    /** read the triangles from the OBJ file, and build the hierarchy */
+    public void load()
+	throws IOException
+    {
+	ObjReader.read(fileName, this);
+	build();
+    }
+
+    // -----------------------------------------------------------------------
+    // Hierarchy
+
+    /** build the hierarchy over the triangles (reordering them) */
+    void build()
+    {
+	int n = triangleCount;
+
+	// With median splits, every leaf holds at least 2 triangles, so
+	// there are fewer than n nodes
+	int maxNodes = Math.max(1, n);
+	bounds      = new float[6 * maxNodes];
+	secondChild = new int[maxNodes];
+	first       = new int[maxNodes];
+	count       = new int[maxNodes];
+	nodeCount   = 0;
+	depth       = 0;
+
+	// Centroid of every triangle
+	float[] centroids = new float[3 * n];
+	int[] order = new int[n];
+	for (int i = 0; i < n; i++) {
+	    for (int a = 0; a < 3; a++)
+	      centroids[3*i+a] = (positions[3*triangles[3*i]+a] +
+				  positions[3*triangles[3*i+1]+a] +
+				  positions[3*triangles[3*i+2]+a]) / 3;
+	    order[i] = i;
+	}
+
+	build(order, 0, n, centroids, 1);
+
+	// Widen the bounds by a float step, so rounding in the slab test
+	// never culls a ray that grazes a triangle lying on a node's side
+	for (int node = 0; node < nodeCount; node++)
+	  for (int a = 0; a < 3; a++) {
+	      bounds[6*node+a]   = Math.nextAfter(bounds[6*node+a],
+						  Double.NEGATIVE_INFINITY);
+	      bounds[6*node+3+a] = Math.nextAfter(bounds[6*node+3+a],
+						  Double.POSITIVE_INFINITY);
+	  }
+
+	bounds      = Arrays.copyOf(bounds, 6 * nodeCount);
+	secondChild = Arrays.copyOf(secondChild, nodeCount);
+	first       = Arrays.copyOf(first, nodeCount);
+	count       = Arrays.copyOf(count, nodeCount);
+
+	// Put the triangles in the order the leaves refer to them
+	triangles = reorder(triangles, order);
+	if (normalIndex != null)
+	  normalIndex = reorder(normalIndex, order);
+	if (texIndex != null)
+	  texIndex = reorder(texIndex, order);
+    }
+
+    /** build the node for triangles order[start..end), returns its index
+     *
+     *  The centroids are kept in the same order as the triangles in
+     *  order (moved along with them), so each level of the tree scans
+     *  them in sequence
+     */
+    private int build(int[] order, int start, int end, float[] centroids,
+		      int level)
+    {
+	int node = nodeCount++;
+	depth = Math.max(depth, level);
+
+	if (end - start <= leafSize) {
+	    secondChild[node] = -1;
+	    first[node] = start;
+	    count[node] = end - start;
+
+	    // Bounds of the corners of the triangles
+	    for (int a = 0; a < 3; a++) {
+		bounds[6*node+a]   =  Float.MAX_VALUE;
+		bounds[6*node+3+a] = -Float.MAX_VALUE;
+	    }
+	    for (int k = start; k < end; k++) {
+		int i = order[k];
+		for (int j = 0; j < 3; j++) {
+		    int v = 3*triangles[3*i+j];
+		    for (int a = 0; a < 3; a++) {
+			bounds[6*node+a]   = Math.min(bounds[6*node+a],
+						      positions[v+a]);
+			bounds[6*node+3+a] = Math.max(bounds[6*node+3+a],
+						      positions[v+a]);
+		    }
+		}
+	    }
+	    return node;
+	}
+
+	// Bounds of the triangle centroids
+	float[] cmin = { Float.MAX_VALUE,  Float.MAX_VALUE,  Float.MAX_VALUE };
+	float[] cmax = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+	for (int k = start; k < end; k++)
+	  for (int a = 0; a < 3; a++) {
+	      cmin[a] = Math.min(cmin[a], centroids[3*k+a]);
+	      cmax[a] = Math.max(cmax[a], centroids[3*k+a]);
+	  }
+
+	// Split at the median along the longest axis of the centroids
+	int axis = 0;
+	for (int a = 1; a < 3; a++)
+	  if (cmax[a] - cmin[a] > cmax[axis] - cmin[axis])
+	    axis = a;
+
+	int mid = (start + end) / 2;
+	select(order, start, end, mid, centroids, axis);
+
+	int a = build(order, start, mid, centroids, level + 1);
+	int b = build(order, mid, end, centroids, level + 1);
+	secondChild[node] = b;
+
+	// The node bounds the bounds of its children
+	for (int k = 0; k < 3; k++) {
+	    bounds[6*node+k]   = Math.min(bounds[6*a+k],   bounds[6*b+k]);
+	    bounds[6*node+3+k] = Math.max(bounds[6*a+3+k], bounds[6*b+3+k]);
+	}
+
+	return node;
+    }
+
+    /** partially sort order[start..end) (and the centroids with it) along
+     *  axis, so that order[k] is in its sorted place, with smaller ones
+     *  before it and larger ones after it (Hoare's selection -- a full
+     *  sort would box the indices)
+     */
+    private static void select(int[] order, int start, int end, int k,
+			       float[] centroids, int axis)
+    {
+	int lo = start, hi = end - 1;
+	while (lo < hi) {
+	    float pivot = centroids[3*k+axis];
+	    int i = lo, j = hi;
+	    do {
+		while (centroids[3*i+axis] < pivot) i++;
+		while (pivot < centroids[3*j+axis]) j--;
+		if (i <= j) {
+		    swap(order, centroids, i, j);
+		    i++;
+		    j--;
+		}
+	    } while (i <= j);
+	    if (j < k) lo = i;
+	    if (k < i) hi = j;
+	}
+    }
+
+    private static void swap(int[] order, float[] centroids, int i, int j)
+    {
+	int t = order[i]; order[i] = order[j]; order[j] = t;
+	for (int a = 0; a < 3; a++) {
+	    float c = centroids[3*i+a];
+	    centroids[3*i+a] = centroids[3*j+a];
+	    centroids[3*j+a] = c;
+	}
+    }
+
+    /** the corners of the triangles in a new order */
+    private static int[] reorder(int[] corners, int[] order)
+    {
+	int[] result = new int[corners.length];
+	for (int k = 0; k < order.length; k++)
+	  System.arraycopy(corners, 3 * order[k], result, 3 * k, 3);
+	return result;
+    }
+
+    // -----------------------------------------------------------------------
+    // Intersection
+
+    /** computes the closest ray intersection point with the triangles
+     *  (Moller-Trumbore test, in the units of the ray direction)
+     */
+    boolean hit(Ray r, ISect intersection, boolean all, double minT)
+    {
+	if (nodeCount == 0)
+	  return false;
+
+	double ox = r.origin.x, oy = r.origin.y, oz = r.origin.z;
+	double dx = r.direction.x, dy = r.direction.y, dz = r.direction.z;
+	double invX = 1 / dx, invY = 1 / dy, invZ = 1 / dz;
+
+	Traversal stack = traversal.get();
+	if (stack.nodes.length < depth + 1) {
+	    // The mesh was loaded again since this thread last used it
+	    stack = new Traversal(depth + 1);
+	    traversal.set(stack);
+	}
+	int[]    nodes = stack.nodes;
+	double[] enter = stack.enter;
+	int top = 0;
+
+	// Closest hit so far: t, triangle and barycentric coordinates (finite,
+	// so nodes the ray misses -- entered at infinity -- are never pushed)
+	double closest = Double.MAX_VALUE;
+	int hitTriangle = -1;
+	double hitB1 = 0, hitB2 = 0;
+
+	double t0 = enter(0, ox, oy, oz, invX, invY, invZ);
+	if (t0 != Double.POSITIVE_INFINITY) {
+	    nodes[top] = 0;
+	    enter[top++] = t0;
+	}
+
+	while (top > 0) {
+	    int node = nodes[--top];
+
+	    // Something closer was found since this node was pushed
+	    if (enter[top] > closest)
+	      continue;
+
+	    if (secondChild[node] < 0) {
+		for (int k = first[node]; k < first[node] + count[node]; k++) {
+		    int i0 = 3*triangles[3*k];
+		    int i1 = 3*triangles[3*k+1];
+		    int i2 = 3*triangles[3*k+2];
+
+		    double ax = positions[i0];
+		    double ay = positions[i0+1];
+		    double az = positions[i0+2];
+		    double e1x = positions[i1] - ax;
+		    double e1y = positions[i1+1] - ay;
+		    double e1z = positions[i1+2] - az;
+		    double e2x = positions[i2] - ax;
+		    double e2y = positions[i2+1] - ay;
+		    double e2z = positions[i2+2] - az;
+
+		    // p = d x e2
+		    double px = dy*e2z - dz*e2y;
+		    double py = dz*e2x - dx*e2z;
+		    double pz = dx*e2y - dy*e2x;
+
+		    // The ray is parallel to the triangle (or it is
+		    // degenerate)
+		    double det = e1x*px + e1y*py + e1z*pz;
+		    if (det == 0)
+		      continue;
+		    double invDet = 1 / det;
+
+		    double sx = ox - ax, sy = oy - ay, sz = oz - az;
+		    double b1 = (sx*px + sy*py + sz*pz) * invDet;
+		    if (b1 < 0 || b1 > 1)
+		      continue;
+
+		    // q = s x e1
+		    double qx = sy*e1z - sz*e1y;
+		    double qy = sz*e1x - sx*e1z;
+		    double qz = sx*e1y - sy*e1x;
+
+		    double b2 = (dx*qx + dy*qy + dz*qz) * invDet;
+		    if (b2 < 0 || b1 + b2 > 1)
+		      continue;
+
+		    double t = (e2x*qx + e2y*qy + e2z*qz) * invDet;
+		    if (t > minT && t < closest) {
+			closest = t;
+			hitTriangle = k;
+			hitB1 = b1;
+			hitB2 = b2;
+		    }
+		}
+	    } else {
+		// Visit the nearer child first (it goes on top)
+		int a = node + 1, b = secondChild[node];
+		double ta = enter(a, ox, oy, oz, invX, invY, invZ);
+		double tb = enter(b, ox, oy, oz, invX, invY, invZ);
+		if (ta > tb) {
+		    int ti = a; a = b; b = ti;
+		    double tt = ta; ta = tb; tb = tt;
+		}
+		if (tb <= closest) {
+		    nodes[top] = b;
+		    enter[top++] = tb;
+		}
+		if (ta <= closest) {
+		    nodes[top] = a;
+		    enter[top++] = ta;
+		}
+	    }
+	}
+
+	if (hitTriangle < 0)
+	  return false;
+
+	intersection.t = closest;
+	intersection.setHitObject(this);
+	intersection.getHitPoint().set(ox + closest*dx, oy + closest*dy,
+				       oz + closest*dz);
+	if (all)
+	  setSurface(intersection, hitTriangle, hitB1, hitB2);
+
+	return true;
+    }
+
+    /** fill in the normal, texture coordinates and surface derivatives
+     *  at barycentric coordinates (b1, b2) of triangle k
+     */
+    private void setSurface(ISect intersection, int k, double b1, double b2)
+    {
+	double b0 = 1 - b1 - b2;
+	int i0 = 3*triangles[3*k], i1 = 3*triangles[3*k+1],
+	    i2 = 3*triangles[3*k+2];
+
+	Vector3d e1 = intersection.getDpDu(), e2 = intersection.getDpDv();
+	e1.set(positions[i1] - positions[i0], positions[i1+1] - positions[i0+1],
+	       positions[i1+2] - positions[i0+2]);
+	e2.set(positions[i2] - positions[i0], positions[i2+1] - positions[i0+1],
+	       positions[i2+2] - positions[i0+2]);
+
+	// Normal: interpolated from the vertices, or of the face
+	Vector3d normal = intersection.getNormal();
+	if (normalIndex != null && normalIndex[3*k] >= 0 &&
+	    normalIndex[3*k+1] >= 0 && normalIndex[3*k+2] >= 0) {
+	    int n0 = 3*normalIndex[3*k], n1 = 3*normalIndex[3*k+1],
+		n2 = 3*normalIndex[3*k+2];
+	    normal.set(b0*normals[n0]   + b1*normals[n1]   + b2*normals[n2],
+		       b0*normals[n0+1] + b1*normals[n1+1] + b2*normals[n2+1],
+		       b0*normals[n0+2] + b1*normals[n1+2] + b2*normals[n2+2]);
+	} else {
+	    normal.cross(e1, e2);
+	}
+
+	// Texture coordinates: interpolated from the vertices, or the
+	// barycentric coordinates (with derivatives along the edges)
+	if (texIndex != null && texIndex[3*k] >= 0 &&
+	    texIndex[3*k+1] >= 0 && texIndex[3*k+2] >= 0) {
+	    int t0 = 2*texIndex[3*k], t1 = 2*texIndex[3*k+1],
+		t2 = 2*texIndex[3*k+2];
+	    intersection.setU(b0*texCoords[t0]   + b1*texCoords[t1]   +
+			      b2*texCoords[t2]);
+	    intersection.setV(b0*texCoords[t0+1] + b1*texCoords[t1+1] +
+			      b2*texCoords[t2+1]);
+
+	    // Solve for dP/du and dP/dv from the edges
+	    double du1 = texCoords[t1] - texCoords[t0];
+	    double dv1 = texCoords[t1+1] - texCoords[t0+1];
+	    double du2 = texCoords[t2] - texCoords[t0];
+	    double dv2 = texCoords[t2+1] - texCoords[t0+1];
+	    double det = du1*dv2 - du2*dv1;
+	    if (det != 0) {
+		double ex = e1.x, ey = e1.y, ez = e1.z;
+		e1.set((dv2*ex - dv1*e2.x) / det, (dv2*ey - dv1*e2.y) / det,
+		       (dv2*ez - dv1*e2.z) / det);
+		e2.set((du1*e2.x - du2*ex) / det, (du1*e2.y - du2*ey) / det,
+		       (du1*e2.z - du2*ez) / det);
+	    }
+	} else {
+	    intersection.setU(b1);
+	    intersection.setV(b2);
+	}
+    }
+
+    /** t at which a ray enters the bounds of a node (clamped to 0 if the
+     *  origin is inside), or infinity if the ray misses it
+     */
+    private double enter(int node, double ox, double oy, double oz,
+			 double invX, double invY, double invZ)
+    {
+	int b = 6 * node;
+	double near = 0, far = Double.POSITIVE_INFINITY;
+	double t1, t2;
+
+	// (a NaN from a ray lying on a slab plane never culls the box)
+	t1 = (bounds[b]   - ox) * invX;
+	t2 = (bounds[b+3] - ox) * invX;
+	if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+	if (t1 > near) near = t1;
+	if (t2 < far)  far  = t2;
+
+	t1 = (bounds[b+1] - oy) * invY;
+	t2 = (bounds[b+4] - oy) * invY;
+	if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+	if (t1 > near) near = t1;
+	if (t2 < far)  far  = t2;
+
+	t1 = (bounds[b+2] - oz) * invZ;
+	t2 = (bounds[b+5] - oz) * invZ;
+	if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+	if (t1 > near) near = t1;
+	if (t2 < far)  far  = t2;
+
+	return near <= far ? near : Double.POSITIVE_INFINITY;
+    }
+
+    /** the bounds of the root of the hierarchy (all the triangles) */
+    void getObjectBounds(Point3d min, Point3d max)
+    {
+	if (nodeCount == 0) {
+	    min.set(0, 0, 0);
+	    max.set(0, 0, 0);
+	    return;
+	}
+	min.set(bounds[0], bounds[1], bounds[2]);
+	max.set(bounds[3], bounds[4], bounds[5]);
+    }
+
+    public void print(PrintStream out)
+    {
+	super.print(out);
+
+	out.println("File      : " + fileName);
+	out.println("Triangles : " + triangleCount);
+    }
+}
@@ -0,0 +1,232 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+
+public class MeshTest {
+	static final double tolerance = 1e-6;
+
+	// The cube [-1,1]^3 (like a box), with quads facing outwards
+	static final String cube =
+		"# cube\n" +
+		"v -1 -1 -1\nv 1 -1 -1\nv 1 1 -1\nv -1 1 -1\n" +
+		"v -1 -1 1\nv 1 -1 1\nv 1 1 1\nv -1 1 1\n" +
+		"f 1 4 3 2\nf 5 6 7 8\n" +
+		"f 1 2 6 5\nf 4 8 7 3\n" +
+		"f 1 5 8 4\nf 2 3 7 6\n";
+
+	/** a mesh read from an OBJ file with the given content */
+	static Mesh mesh(String content) throws IOException {
+		File file = File.createTempFile("mesh", ".obj");
+		try {
+			FileWriter out = new FileWriter(file);
+			out.write(content);
+			out.close();
+
+			Mesh m = new Mesh();
+			m.setFileName(file.getPath());
+			m.load();
+			return m;
+		} finally {
+			file.delete();
+		}
+	}
+
+	Ray ray(double x, double y, double z, double dx, double dy, double dz) {
+		return new Ray(new Point3d(x, y, z), new Vector3d(dx, dy, dz));
+	}
+
+	@Test
+	public void testCubeMatchesBox() throws Exception {
+		Mesh m = mesh(cube);
+		Box box = new Box();
+		assertEquals(12, m.getTriangleCount());
+
+		Point3d min = new Point3d(), max = new Point3d();
+		m.getObjectBounds(min, max);
+		assertEquals(-1, min.x, tolerance);
+		assertEquals(1, max.z, tolerance);
+
+		// Rays from every side, some missing
+		double[][] dirs = { {0, 0, -1}, {0, 0, 2}, {1, 0.1, 0},
+				    {-0.3, -1, 0.2}, {1, 1, 1} };
+		for (double[] d : dirs)
+			for (int i = -6; i <= 6; i++)
+				for (int j = -6; j <= 6; j++) {
+					// Start 5 units back from a point near the cube (off
+					// the edges, where either face could be hit)
+					double px = 0.23*i + 0.013, py = 0.27*j + 0.029,
+					       pz = 0.11*i - 0.07*j + 0.041;
+					Ray r = ray(px - 5*d[0], py - 5*d[1], pz - 5*d[2],
+						    d[0], d[1], d[2]);
+
+					ISect expected = new ISect(), actual = new ISect();
+					boolean hit = box.hit(r, expected, true, 1e-5);
+					assertEquals(hit, m.hit(r, actual, true, 1e-5));
+					if (!hit)
+						continue;
+
+					assertSame(m, actual.getHitObject());
+					assertEquals(expected.t, actual.t, tolerance);
+					assertTrue(expected.hitPoint.epsilonEquals(
+						actual.hitPoint, tolerance));
+
+					Vector3d n = new Vector3d(actual.normal);
+					n.normalize();
+					assertTrue(expected.normal.epsilonEquals(n, tolerance));
+
+					// Without the surface details, t is the same
+					ISect tOnly = new ISect();
+					assertTrue(m.hit(r, tOnly, false, 1e-5));
+					assertEquals(actual.t, tOnly.t, 0);
+				}
+	}
+
+	@Test
+	public void testFromInside() throws Exception {
+		Mesh m = mesh(cube);
+		ISect isect = new ISect();
+		assertTrue(m.hit(ray(0, 0, 0, 0, 0, 1), isect, true, 1e-5));
+		assertEquals(1, isect.t, tolerance);
+		// (The normal still faces outwards)
+		assertTrue(isect.normal.z > 0);
+	}
+
+	@Test
+	public void testVertexNormalsAndTexCoords() throws Exception {
+		// A square in z = 0, with the corners given by negative
+		// (relative) indices
+		Mesh m = mesh(
+			"v 0 0 0\nv 2 0 0\nv 2 2 0\nv 0 2 0\n" +
+			"vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\n" +
+			"vn 0 0 1\nvn 1 0 1\nvn 1 1 1\nvn 0 1 1\n" +
+			"f -4/-4/-4 -3/-3/-3 -2/-2/-2 -1/-1/-1\n");
+
+		ISect isect = new ISect();
+		assertTrue(m.hit(ray(0.5, 1.5, 3, 0, 0, -1), isect, true, 1e-5));
+		assertEquals(3, isect.t, tolerance);
+		assertEquals(0.25, isect.u, tolerance);
+		assertEquals(0.75, isect.v, tolerance);
+
+		// Interpolated normal
+		Vector3d n = new Vector3d(0.25, 0.75, 1);
+		assertTrue(n.epsilonEquals(isect.normal, tolerance));
+
+		// Surface derivatives along u and v
+		assertTrue(new Vector3d(2, 0, 0).epsilonEquals(isect.dPdU, tolerance));
+		assertTrue(new Vector3d(0, 2, 0).epsilonEquals(isect.dPdV, tolerance));
+	}
+
+	@Test
+	public void testTexCoordsOutsideTheUnitSquare() throws Exception {
+		// Texture coordinates from -0.5 to 1.5, so the image repeats
+		// on both sides of the square
+		Mesh m = mesh(
+			"v 0 0 0\nv 2 0 0\nv 2 2 0\nv 0 2 0\n" +
+			"vt -0.5 -0.5\nvt 1.5 -0.5\nvt 1.5 1.5\nvt -0.5 1.5\n" +
+			"f 1/1 2/2 3/3 4/4\n");
+
+		RGBImage image = new RGBImage(4, 4);
+		for (int i = 0; i < 4; i++)
+			for (int j = 0; j < 4; j++)
+				image.setPixel(i, j, new Vector3d(i / 3.0, j / 3.0, 0));
+		ImageTexture texture = new ImageTexture(new MipTexture(image), 1, 1);
+
+		ISect isect = new ISect();
+		Vector3d color = new Vector3d(), expected = new Vector3d();
+		for (double x = 0.05; x < 2; x += 0.1)
+			for (double y = 0.05; y < 2; y += 0.1) {
+				assertTrue(m.hit(ray(x, y, 1, 0, 0, -1), isect, true, 1e-5));
+				assertEquals(x - 0.5, isect.u, tolerance);
+				assertEquals(y - 0.5, isect.v, tolerance);
+
+				// The same as the texture at the wrapped coordinates
+				texture.color(isect.u, isect.v, 0, color);
+				texture.mip.sampleLevel(0, isect.u - Math.floor(isect.u),
+							isect.v - Math.floor(isect.v), expected);
+				assertTrue(expected.epsilonEquals(color, tolerance));
+			}
+	}
+
+	@Test
+	public void testClosestOfManyTriangles() throws Exception {
+		// A stack of squares (listed out of order) at z = 0.01 k, each
+		// split in two by the tessellation
+		StringBuilder obj = new StringBuilder();
+		int layers = 300;
+		for (int k = 0; k < layers; k++) {
+			double z = 0.01 * ((k * 7) % layers);
+			obj.append("v -1 -1 " + z + "\nv 1 -1 " + z +
+				   "\nv 1 1 " + z + "\nv -1 1 " + z + "\n");
+			obj.append("f -4 -3 -2 -1\n");
+		}
+		Mesh m = mesh(obj.toString());
+		assertEquals(2 * layers, m.getTriangleCount());
+
+		// Rays from above hit the top square, from below the bottom
+		// one, and between two squares the next one down
+		ISect isect = new ISect();
+		assertTrue(m.hit(ray(0.3, -0.2, 10, 0, 0, -1), isect, true, 1e-5));
+		assertEquals(0.01 * (layers - 1), isect.hitPoint.z, tolerance);
+		assertTrue(m.hit(ray(-0.6, 0.5, -10, 0, 0, 1), isect, true, 1e-5));
+		assertEquals(0, isect.hitPoint.z, tolerance);
+		assertTrue(m.hit(ray(0.9, 0.9, 1.005, 0.01, 0, -1), isect, true, 1e-5));
+		assertEquals(1.0, isect.hitPoint.z, tolerance);
+
+		assertFalse(m.hit(ray(1.5, 0, 10, 0, 0, -1), isect, true, 1e-5));
+	}
+
+	@Test
+	public void testBadFacesAreRejected() throws Exception {
+		String[] bad = { "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 4\n",
+				 "v 0 0 0\nv 1 0 0\nf 1 2\n",
+				 "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 x\n" };
+		for (String content : bad) {
+			try {
+				mesh(content);
+				fail("Accepted " + content);
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testMeshInScene() throws Exception {
+		File file = File.createTempFile("mesh", ".obj");
+		try {
+			FileWriter out = new FileWriter(file);
+			out.write(cube);
+			out.close();
+
+			// The same cube as a mesh and as a box renders the same
+			// (apart from rounding)
+			String lit = "light { position = (1, 2, 5) }\n" +
+				"translate { (0.3, -0.2, -4) }\n" +
+				"rotate { 30 (1, 1, 0) }\n";
+			Scene meshScene = SceneTest.scene(lit +
+				"mesh { file = \"" + file.getPath() + "\" }\n");
+			Scene boxScene = SceneTest.scene(lit + "box { }\n");
+
+			int hits = 0;
+			for (int i = 0; i < SceneTest.size; i++)
+				for (int j = 0; j < SceneTest.size; j++) {
+					Vector3d a = meshScene.tracePixel(i, j);
+					Vector3d b = boxScene.tracePixel(i, j);
+					if (!a.equals(new Vector3d()))
+						hits++;
+					assertTrue(a.epsilonEquals(b, 1e-4));
+				}
+			assertTrue(hits > 0);
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/* class MipTexture
+ * A texture image with a pyramid of prefiltered copies (a mip map), each
+ * half the size of the one before, so that a texture that is seen from
+ * far away can be sampled without aliasing
+ *
+ * Texels are packed row by row in float arrays (like RGBImage), and the
+ * lookups do not allocate.
+ */
+import javax.vecmath.*;
+
+class MipTexture
+{
+    // Texels of each level (level 0 is the image itself)
+    float[][] levels;
+    int[] widths;
+    int[] heights;
+
+    //------------------------------------------------------------------------
+
+    /** build the pyramid for an image */
+    public MipTexture(RGBImage image)
+    {
+        int w = image.getWidth(), h = image.getHeight();
+
+        int count = 1;
+        while (w > 1 || h > 1) {
+            w = Math.max(1, w / 2);
+            h = Math.max(1, h / 2);
+            count++;
+        }
+
+        levels  = new float[count][];
+        widths  = new int[count];
+        heights = new int[count];
+
+        levels[0]  = image.data;
+        widths[0]  = image.getWidth();
+        heights[0] = image.getHeight();
+        for (int l = 1; l < count; l++)
+          downsample(l);
+    }
+
+    /** make level l by averaging 2x2 blocks of level l-1 (an odd last row
+     *  or column is folded into the block before it)
+     */
+    private void downsample(int l)
+    {
+        float[] src = levels[l-1];
+        int sw = widths[l-1], sh = heights[l-1];
+        int w = Math.max(1, sw / 2), h = Math.max(1, sh / 2);
+
+        float[] dst = new float[w * h * 3];
+        for (int j = 0; j < h; j++) {
+            int j0 = Math.min(2*j, sh-1);
+            int j1 = (j == h-1) ? sh : Math.min(2*j+2, sh);
+            for (int i = 0; i < w; i++) {
+                int i0 = Math.min(2*i, sw-1);
+                int i1 = (i == w-1) ? sw : Math.min(2*i+2, sw);
+
+                double r = 0, g = 0, b = 0;
+                for (int y = j0; y < j1; y++) {
+                    for (int x = i0; x < i1; x++) {
+                        int k = (y*sw + x)*3;
+                        r += src[k];
+                        g += src[k+1];
+                        b += src[k+2];
+                    }
+                }
+
+                double n = (i1 - i0) * (j1 - j0);
+                int k = (j*w + i)*3;
+                dst[k]   = (float)(r / n);
+                dst[k+1] = (float)(g / n);
+                dst[k+2] = (float)(b / n);
+            }
+        }
+
+        levels[l]  = dst;
+        widths[l]  = w;
+        heights[l] = h;
+    }
+
+    //------------------------------------------------------------------------
+
+    public int getLevelCount() { return levels.length; }
+
+    /** memory taken up by the texels of all the levels */
+    public long getBytes()
+    {
+        long bytes = 0;
+        for (int l = 0; l < levels.length; l++)
+          bytes += 4L * levels[l].length;
+        return bytes;
+    }
+
+    /** level of detail for a footprint (the width of the area being
+     *  sampled, in the same units as u and v): 0 is the full image, and
+     *  each level up is twice as coarse
+     */
+    public double levelOfDetail(double footprint)
+    {
+        double texels = footprint * Math.max(widths[0], heights[0]);
+        if (!(texels > 1))
+          return 0;
+
+        return Math.min(levels.length - 1, Math.log(texels) / Math.log(2));
+    }
+
+    /** color of the texture at (u,v) (both in [0,1]) for a sample that
+     *  covers footprint (in u,v units), put in target: bilinear within
+     *  a level, and blended between the two nearest levels
+     */
+    public void sample(double u, double v, double footprint, Tuple3d target)
+    {
+        double lod = levelOfDetail(footprint);
+        int l = (int)lod;
+        double alpha = lod - l;
+
+        sampleLevel(l, u, v, target);
+        if (alpha > 0 && l + 1 < levels.length) {
+            double r = target.x, g = target.y, b = target.z;
+            sampleLevel(l + 1, u, v, target);
+            target.set(r + alpha * (target.x - r),
+                       g + alpha * (target.y - g),
+                       b + alpha * (target.z - b));
+        }
+    }
+
+    /** bilinear interpolation of the 4 texels of level l around (u,v)
+     *  (the same as RGBImage.getSubPixel() on level 0)
+     */
+    public void sampleLevel(int l, double u, double v, Tuple3d target)
+    {
+        float[] data = levels[l];
+        int width = widths[l], height = heights[l];
+
+        double x = u * (width-1), y = v * (height-1);
+
+        int x0 = (int)x, y0 = (int)y;
+        double alphaX = x - x0, alphaY = y - y0;
+
+        // Neighbors past the edge (only reached with a weight of 0)
+        int x1 = Math.min(x0+1, width-1), y1 = Math.min(y0+1, height-1);
+
+        int k00 = (y0*width + x0)*3, k10 = (y0*width + x1)*3;
+        int k01 = (y1*width + x0)*3, k11 = (y1*width + x1)*3;
+
+        double w00 = (1-alphaX) * (1-alphaY), w10 = (alphaX) * (1-alphaY);
+        double w01 = (1-alphaX) *   (alphaY), w11 = (alphaX) *   (alphaY);
+
+        target.set(w00*data[k00]   + w10*data[k10]   + w01*data[k01]   + w11*data[k11],
+                   w00*data[k00+1] + w10*data[k10+1] + w01*data[k01+1] + w11*data[k11+1],
+                   w00*data[k00+2] + w10*data[k10+2] + w01*data[k01+2] + w11*data[k11+2]);
+    }
+}
@@ -0,0 +1,89 @@
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+
+public class MipTextureTest {
+
+	/** a checkerboard of black and white texels */
+	RGBImage checkerboard(int width, int height) {
+		RGBImage image = new RGBImage(width, height);
+		for (int i = 0; i < width; i++)
+			for (int j = 0; j < height; j++)
+				if ((i + j) % 2 == 0)
+					image.setPixel(i, j, new Vector3d(1, 1, 1));
+		return image;
+	}
+
+	@Test
+	public void testLevels() {
+		MipTexture mip = new MipTexture(checkerboard(8, 5));
+		int[] widths = { 8, 4, 2, 1 };
+		int[] heights = { 5, 2, 1, 1 };
+
+		assertEquals(widths.length, mip.getLevelCount());
+		for (int l = 0; l < widths.length; l++) {
+			assertEquals(widths[l], mip.widths[l]);
+			assertEquals(heights[l], mip.heights[l]);
+		}
+
+		// The last level is the average of the whole image
+		Vector3d color = new Vector3d();
+		mip.sampleLevel(mip.getLevelCount() - 1, 0.5, 0.5, color);
+		assertEquals(20 / 40.0, color.x, 1e-6);
+	}
+
+	@Test
+	public void testSharpFootprintMatchesImage() {
+		RGBImage image = checkerboard(7, 6);
+		MipTexture mip = new MipTexture(image);
+
+		Vector3d color = new Vector3d();
+		for (double u = 0; u <= 1; u += 0.0625)
+			for (double v = 0; v <= 1; v += 0.125) {
+				mip.sample(u, v, 0, color);
+				assertEquals(image.getSubPixel(u, v), color);
+			}
+	}
+
+	@Test
+	public void testWideFootprintIsFiltered() {
+		MipTexture mip = new MipTexture(checkerboard(64, 64));
+		Vector3d color = new Vector3d();
+
+		// Covering 4 texels: level 2, where the checkerboard averages out
+		assertEquals(2.0, mip.levelOfDetail(4 / 64.0), 1e-12);
+		mip.sample(0.3, 0.7, 4 / 64.0, color);
+		assertEquals(0.5, color.x, 1e-6);
+
+		// Half way between levels 0 and 1 is half way between their colors
+		Vector3d fine = new Vector3d(), coarse = new Vector3d();
+		mip.sampleLevel(0, 0.25, 0.25, fine);
+		mip.sampleLevel(1, 0.25, 0.25, coarse);
+		mip.sample(0.25, 0.25, Math.sqrt(2) / 64, color);
+		assertEquals((fine.y + coarse.y) / 2, color.y, 1e-6);
+	}
+
+	@Test
+	public void testSampleDoesNotAllocate() {
+		MipTexture mip = new MipTexture(checkerboard(32, 32));
+		Vector3d color = new Vector3d();
+
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+		long thread = Thread.currentThread().getId();
+
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < 10000; i++)
+			mip.sample((i % 97) / 97.0, (i % 89) / 89.0, (i % 13) / 50.0, color);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+		assertTrue("allocated " + allocated + " bytes", allocated < 10000);
+	}
+}
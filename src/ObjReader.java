@@ -0,0 +1,377 @@
+/* class ObjReader
+ * Reads the geometry of a Wavefront OBJ file (vertex positions, normals
+ * and texture coordinates, and the faces) into the arrays of a Mesh
+ *
+ * Polygons are split into triangles (as a fan around their first
+ * corner).  Everything else in the file (groups, materials, smoothing)
+ * is skipped.  Like PPMReader, the file is memory mapped and decoded
+ * byte by byte, without making a String for every line.
+ */
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+class ObjReader
+{
+    // Exact powers of ten (the largest an int64 mantissa can be divided
+    // by without rounding twice)
+    private static final double[] powersOfTen = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    MappedByteBuffer buffer;
+    int limit;
+    // Position of the next unread byte, and the line it is on
+    int pos  = 0;
+    int line = 1;
+
+    // Vertex attributes (3 floats per position and normal, 2 per
+    // texture coordinate)
+    float[] positions = new float[3 * 1024];
+    float[] normals   = new float[3 * 1024];
+    float[] texCoords = new float[2 * 1024];
+    int positionCount = 0, normalCount = 0, texCoordCount = 0;
+
+    // Triangle corners: indices of the position, texture coordinate and
+    // normal of each (-1 where a face leaves one out)
+    int[] triangles   = new int[3 * 1024];
+    int[] texIndex    = new int[3 * 1024];
+    int[] normalIndex = new int[3 * 1024];
+    int triangleCount = 0;
+
+    // Whether any face refers to texture coordinates or normals
+    boolean faceTexCoords = false, faceNormals = false;
+
+    // Corners of the face being read
+    int[] corner = new int[3 * 16];
+
+    //------------------------------------------------------------------------
+
+    /** read an OBJ file into mesh (replacing its geometry) */
+    public static void read(String fileName, Mesh mesh)
+        throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+              throw new IOException("OBJ file too large: " + fileName);
+
+            ObjReader reader = new ObjReader();
+            reader.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                        channel.size());
+            reader.limit = reader.buffer.limit();
+            reader.decode();
+            reader.store(mesh);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void decode()
+        throws IOException
+    {
+        while (pos < limit) {
+            skipSpaces();
+            if (pos >= limit)
+              break;
+
+            int c0 = buffer.get(pos) & 0xff;
+            int c1 = pos + 1 < limit ? buffer.get(pos + 1) & 0xff : '\n';
+            int c2 = pos + 2 < limit ? buffer.get(pos + 2) & 0xff : '\n';
+
+            if (c0 == 'v' && isSpace(c1)) {
+                pos += 1;
+                positions = grow(positions, 3 * positionCount + 3);
+                readNumbers(positions, 3 * positionCount, 3);
+                positionCount++;
+            } else if (c0 == 'v' && c1 == 'n' && isSpace(c2)) {
+                pos += 2;
+                normals = grow(normals, 3 * normalCount + 3);
+                readNumbers(normals, 3 * normalCount, 3);
+                normalCount++;
+            } else if (c0 == 'v' && c1 == 't' && isSpace(c2)) {
+                pos += 2;
+                texCoords = grow(texCoords, 2 * texCoordCount + 2);
+                readNumbers(texCoords, 2 * texCoordCount, 2);
+                texCoordCount++;
+            } else if (c0 == 'f' && isSpace(c1)) {
+                pos += 1;
+                readFace();
+            }
+
+            // Anything else on the line (a w coordinate, vertex colors,
+            // a comment or an unsupported statement) is ignored
+            skipLine();
+        }
+    }
+
+    /** put the geometry that was read into mesh (trimming the arrays) */
+    private void store(Mesh mesh)
+    {
+        mesh.positions     = Arrays.copyOf(positions, 3 * positionCount);
+        mesh.triangles     = Arrays.copyOf(triangles, 3 * triangleCount);
+        mesh.triangleCount = triangleCount;
+
+        if (faceNormals) {
+            mesh.normals     = Arrays.copyOf(normals, 3 * normalCount);
+            mesh.normalIndex = Arrays.copyOf(normalIndex, 3 * triangleCount);
+        } else {
+            mesh.normals     = null;
+            mesh.normalIndex = null;
+        }
+
+        if (faceTexCoords) {
+            mesh.texCoords = Arrays.copyOf(texCoords, 2 * texCoordCount);
+            mesh.texIndex  = Arrays.copyOf(texIndex, 3 * triangleCount);
+        } else {
+            mesh.texCoords = null;
+            mesh.texIndex  = null;
+        }
+    }
+
+    //------------------------------------------------------------------------
+    // Faces
+
+    /** read the corners of a face (v, v/vt, v//vn or v/vt/vn each), and
+     *  add its triangles
+     */
+    private void readFace()
+        throws IOException
+    {
+        int corners = 0;
+        while (true) {
+            skipSpaces();
+            if (atLineEnd())
+              break;
+
+            corner = grow(corner, 3 * corners + 3);
+            corner[3*corners]   = readIndex(positionCount);
+            corner[3*corners+1] = -1;
+            corner[3*corners+2] = -1;
+
+            if (pos < limit && buffer.get(pos) == '/') {
+                pos++;
+                if (pos < limit && buffer.get(pos) != '/') {
+                    corner[3*corners+1] = readIndex(texCoordCount);
+                    faceTexCoords = true;
+                }
+                if (pos < limit && buffer.get(pos) == '/') {
+                    pos++;
+                    corner[3*corners+2] = readIndex(normalCount);
+                    faceNormals = true;
+                }
+            }
+            corners++;
+        }
+
+        if (corners < 3)
+          throw new IOException("Face with fewer than 3 corners on line " +
+                                line);
+
+        // Fan around the first corner
+        for (int k = 2; k < corners; k++) {
+            int t = 3 * triangleCount;
+            triangles   = grow(triangles, t + 3);
+            texIndex    = grow(texIndex, t + 3);
+            normalIndex = grow(normalIndex, t + 3);
+
+            int[] c = { 0, k - 1, k };
+            for (int j = 0; j < 3; j++) {
+                triangles[t+j]   = corner[3*c[j]];
+                texIndex[t+j]    = corner[3*c[j]+1];
+                normalIndex[t+j] = corner[3*c[j]+2];
+            }
+            triangleCount++;
+        }
+    }
+
+    /** read a (1-based, or negative for relative) index into a list
+     *  that so far has count entries, and return it 0-based
+     */
+    private int readIndex(int count)
+        throws IOException
+    {
+        boolean negative = false;
+        if (pos < limit && buffer.get(pos) == '-') {
+            negative = true;
+            pos++;
+        }
+
+        int b = pos < limit ? buffer.get(pos) & 0xff : '\n';
+        if (b < '0' || b > '9')
+          throw new IOException("Index expected on line " + line);
+
+        long value = 0;
+        while (b >= '0' && b <= '9') {
+            value = value * 10 + (b - '0');
+            if (value > Integer.MAX_VALUE)
+              throw new IOException("Index too large on line " + line);
+
+            pos++;
+            b = pos < limit ? buffer.get(pos) & 0xff : '\n';
+        }
+
+        long index = negative ? count - value : value - 1;
+        if (value == 0 || index < 0 || index >= count)
+          throw new IOException("Index out of range on line " + line);
+
+        return (int)index;
+    }
+
+    //------------------------------------------------------------------------
+    // Numbers
+
+    /** read n numbers into target[offset..offset+n) (missing ones at the
+     *  end of the line are 0)
+     */
+    private void readNumbers(float[] target, int offset, int n)
+        throws IOException
+    {
+        for (int i = 0; i < n; i++) {
+            skipSpaces();
+            target[offset + i] = atLineEnd() ? 0 : (float)readNumber();
+        }
+    }
+
+    /** read a decimal number (with an optional fraction and exponent) */
+    private double readNumber()
+        throws IOException
+    {
+        boolean negative = false;
+        int b = buffer.get(pos) & 0xff;
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            b = next();
+        }
+        int start = pos;
+
+        // Up to 18 significant digits fit in the mantissa; later ones
+        // are dropped (they cannot make a difference to a float)
+        long mantissa = 0;
+        int digits = 0, exponent = 0;
+        boolean any = false;
+        while (b >= '0' && b <= '9') {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0)
+                  digits++;
+            } else {
+                exponent++;
+            }
+            any = true;
+            b = next();
+        }
+        if (b == '.') {
+            b = next();
+            while (b >= '0' && b <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0)
+                      digits++;
+                    exponent--;
+                }
+                any = true;
+                b = next();
+            }
+        }
+        if (!any)
+          throw new IOException("Number expected on line " + line);
+
+        if (b == 'e' || b == 'E') {
+            b = next();
+            boolean negativeExp = false;
+            if (b == '-' || b == '+') {
+                negativeExp = b == '-';
+                b = next();
+            }
+            if (b < '0' || b > '9')
+              throw new IOException("Number expected on line " + line);
+
+            int e = 0;
+            while (b >= '0' && b <= '9') {
+                if (e < 100000)
+                  e = e * 10 + (b - '0');
+                b = next();
+            }
+            exponent += negativeExp ? -e : e;
+        }
+
+        double value;
+        if (mantissa < (1L << 53) && Math.abs(exponent) < powersOfTen.length)
+          value = exponent < 0 ? mantissa / powersOfTen[-exponent]
+                               : mantissa * powersOfTen[exponent];
+        else
+          value = Double.parseDouble(text(start, pos));
+
+        return negative ? -value : value;
+    }
+
+    /** move to the next byte and return it ('\n' at the end of the file) */
+    private int next()
+    {
+        pos++;
+        return pos < limit ? buffer.get(pos) & 0xff : '\n';
+    }
+
+    private String text(int start, int end)
+    {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+          bytes[i] = buffer.get(start + i);
+        return new String(bytes);
+    }
+
+    //------------------------------------------------------------------------
+    // Lines
+
+    private static boolean isSpace(int b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    /** skip spaces and tabs (but not the end of the line) */
+    private void skipSpaces()
+    {
+        while (pos < limit) {
+            byte b = buffer.get(pos);
+            if (b != ' ' && b != '\t' && b != '\r')
+              break;
+            pos++;
+        }
+    }
+
+    /** whether the rest of the line is empty (or a comment) */
+    private boolean atLineEnd()
+    {
+        if (pos >= limit)
+          return true;
+        byte b = buffer.get(pos);
+        return b == '\n' || b == '#';
+    }
+
+    /** skip past the end of the current line */
+    private void skipLine()
+    {
+        while (pos < limit && buffer.get(pos) != '\n')
+          pos++;
+        if (pos < limit) {
+            pos++;
+            line++;
+        }
+    }
+
+    private static float[] grow(float[] a, int size)
+    {
+        return size <= a.length ? a : Arrays.copyOf(a, Math.max(size,
+                                                                2 * a.length));
+    }
+
+    private static int[] grow(int[] a, int size)
+    {
+        return size <= a.length ? a : Arrays.copyOf(a, Math.max(size,
+                                                                2 * a.length));
+    }
+}
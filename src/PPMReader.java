@@ -0,0 +1,231 @@
+/* class PPMReader
+ * Reads PPM files (binary P6 or text P3, with 8 or 16 bits per sample)
+ * into the packed pixels of an RGBImage
+ *
+ * The file is memory mapped rather than read through a stream, and
+ * large binary images are decoded on several threads, a band of rows
+ * each.
+ */
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+class PPMReader
+{
+    // Images with fewer samples than this are decoded on a single thread
+    static final int parallelSamples = 1 << 20;
+
+    // Rows decoded by one task
+    static final int bandRows = 64;
+
+    MappedByteBuffer buffer;
+    // Position of the next unread byte
+    int pos = 0;
+
+    //------------------------------------------------------------------------
+
+    /** read a PPM file into image (replacing its size and pixels) */
+    public static void read(String fileName, RGBImage image)
+        throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+              throw new IOException("PPM file too large: " + fileName);
+
+            PPMReader reader = new PPMReader();
+            reader.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                        channel.size());
+            reader.decode(image);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void decode(RGBImage image)
+        throws IOException
+    {
+        // read header
+        boolean raw;
+
+        String magic = "" + (char)nextByte() + (char)nextByte();
+        if (magic.equals("P6"))
+          raw = true;
+        else if (magic.equals("P3"))
+          raw = false;
+        else
+          throw new IOException("Not a PPM file");
+
+        int width  = nextInt();
+        int height = nextInt();
+        int maxval = nextInt();
+        if (width <= 0 || height <= 0 || maxval <= 0 || maxval > 65535)
+          throw new IOException("Not a PPM file");
+
+        // Check the size against the file before allocating anything
+        // (each text sample takes at least a byte)
+        long samples = (long)width * height * 3;
+        int bytesPerSample = maxval < 256 ? 1 : 2;
+        if (samples > Integer.MAX_VALUE)
+          throw new IOException("PPM image too large: " + width + "x" + height);
+        if (pos + (raw ? samples * bytesPerSample : samples) > buffer.limit())
+          throw new IOException("File read error");
+
+        // Sample values, scaled to [0,1]
+        float[] scale = new float[maxval + 1];
+        for (int c = 0; c <= maxval; c++)
+          scale[c] = (float)(c / (double)maxval);
+
+        float[] data = new float[(int)samples];
+        if (raw) {
+            // (The single whitespace character between the header and
+            // the data was read along with maxval)
+            decodeRaw(data, width, height, pos, bytesPerSample, scale);
+        } else {
+            // Rows are stored top to bottom in the file
+            for (int i = 0; i < height; i++) {
+                int k = (height-i-1)*width*3;
+                for (int j = 0; j < width*3; j++) {
+                    int c = nextInt();
+                    if (c > maxval)
+                      throw new IOException("PPM sample out of range: " + c);
+                    data[k++] = scale[c];
+                }
+            }
+        }
+
+        // The image is only changed once the whole file has been read
+        image.width  = width;
+        image.height = height;
+        image.depth  = 3;
+        image.length = data.length;
+        image.data   = data;
+    }
+
+    //------------------------------------------------------------------------
+    // Binary (P6) data
+
+    /** decode all the rows of binary data starting at offset into data */
+    private void decodeRaw(final float[] data, final int width,
+                           final int height, final int offset,
+                           final int bytesPerSample, final float[] scale)
+        throws IOException
+    {
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(),
+                               (height + bandRows - 1) / bandRows);
+
+        if (threads <= 1 || data.length < parallelSamples) {
+            decodeRows(data, width, height, offset, bytesPerSample, scale, 0, height);
+            return;
+        }
+
+        Vector<Callable<Object>> tasks = new Vector<Callable<Object>>();
+        for (int row = 0; row < height; row += bandRows) {
+            final int start = row, end = Math.min(row + bandRows, height);
+            tasks.addElement(new Callable<Object>() {
+                public Object call() {
+                    decodeRows(data, width, height, offset,
+                               bytesPerSample, scale, start, end);
+                    return null;
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (Future<Object> f : pool.invokeAll(tasks))
+              f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("PPM decoding interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+              throw (RuntimeException)cause;
+            if (cause instanceof Error)
+              throw (Error)cause;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** decode file rows [start, end) (may be called from any thread --
+     *  it only uses absolute reads of the buffer)
+     */
+    private void decodeRows(float[] data, int width, int height, int offset,
+                            int bytesPerSample, float[] scale, int start,
+                            int end)
+    {
+        int rowSamples = width * 3;
+        int maxval = scale.length - 1;
+
+        for (int i = start; i < end; i++) {
+            int p = offset + i * rowSamples * bytesPerSample;
+            // Rows are stored top to bottom in the file
+            int k = (height-i-1) * rowSamples;
+
+            if (bytesPerSample == 1) {
+                for (int j = 0; j < rowSamples; j++)
+                  data[k++] = scale[buffer.get(p++) & 0xff];
+            } else {
+                // Big endian, and clamped in case the file breaks maxval
+                for (int j = 0; j < rowSamples; j++, p += 2) {
+                    int c = ((buffer.get(p) & 0xff) << 8) |
+                            (buffer.get(p+1) & 0xff);
+                    data[k++] = scale[Math.min(c, maxval)];
+                }
+            }
+        }
+    }
+
+    //------------------------------------------------------------------------
+    // Header and text (P3) data
+
+    private int nextByte()
+        throws IOException
+    {
+        if (pos >= buffer.limit())
+          throw new EOFException();
+        return buffer.get(pos++) & 0xff;
+    }
+
+    /** read a decimal number, skipping whitespace and comments before it */
+    private int nextInt()
+        throws IOException
+    {
+        int b = nextByte();
+        while (true) {
+            if (b == '#') {
+                // Comments go to the end of the line
+                while (b != '\n' && b != '\r')
+                  b = nextByte();
+            } else if (b == ' ' || b == '\t' || b == '\n' || b == '\r' ||
+                       b == '\f' || b == 0x0b) {
+                b = nextByte();
+            } else {
+                break;
+            }
+        }
+
+        if (b < '0' || b > '9')
+          throw new IOException("Not a PPM file");
+
+        long value = 0;
+        while (b >= '0' && b <= '9') {
+            value = value * 10 + (b - '0');
+            if (value > Integer.MAX_VALUE)
+              throw new IOException("PPM number too large");
+
+            if (pos >= buffer.limit())
+              return (int)value;
+            b = buffer.get(pos++) & 0xff;
+        }
+
+        // Leave pos just past the single character ending the number
+        return (int)value;
+    }
+}
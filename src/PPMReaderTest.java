@@ -0,0 +1,110 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+
+public class PPMReaderTest {
+
+	RGBImage read(byte[] contents) throws Exception {
+		File file = File.createTempFile("ppmreader", ".ppm");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(contents);
+			out.close();
+			return new RGBImage(file.getPath());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testTextWithComments() throws Exception {
+		RGBImage image = read(("P3\n# a comment\n2 1 # width, height\n15\n" +
+				"0 5 15\t15 0\n0\n").getBytes());
+
+		assertEquals(2, image.getWidth());
+		assertEquals(1, image.getHeight());
+		assertTrue(new Vector3d(0, 1 / 3.0, 1).epsilonEquals(image.getPixel(0, 0), 1e-6));
+		assertTrue(new Vector3d(1, 0, 0).epsilonEquals(image.getPixel(1, 0), 1e-6));
+	}
+
+	@Test
+	public void testSixteenBitSamples() throws Exception {
+		byte[] header = "P6 1 2 65535\n".getBytes();
+		byte[] contents = new byte[header.length + 12];
+		System.arraycopy(header, 0, contents, 0, header.length);
+		// Top row (image row 1), then bottom row (image row 0)
+		int[] samples = { 65535, 0, 32768, 1, 2, 3 };
+		for (int i = 0; i < samples.length; i++) {
+			contents[header.length + 2*i]     = (byte)(samples[i] >> 8);
+			contents[header.length + 2*i + 1] = (byte)samples[i];
+		}
+
+		RGBImage image = read(contents);
+		assertEquals(new Vector3d(1, 0, (float)(32768 / 65535.0)), image.getPixel(0, 1));
+		assertEquals(new Vector3d((float)(1 / 65535.0), (float)(2 / 65535.0),
+				(float)(3 / 65535.0)), image.getPixel(0, 0));
+	}
+
+	@Test
+	public void testLargeImageIsDecodedInBands() throws Exception {
+		// Enough samples to be decoded on several threads
+		int width = 700, height = 500;
+		RGBImage image = new RGBImage(width, height);
+		for (int i = 0; i < width; i++)
+			for (int j = 0; j < height; j++)
+				image.setPixel(i, j, new Vector3d((i % 256) / 255.0, (j % 256) / 255.0,
+						((i + j) % 256) / 255.0));
+
+		File file = File.createTempFile("ppmreader", ".ppm");
+		try {
+			image.write(file.getPath());
+			RGBImage copy = new RGBImage(file.getPath());
+
+			for (int i = 0; i < width; i += 7)
+				for (int j = 0; j < height; j += 3)
+					assertTrue(image.getPixel(i, j).epsilonEquals(copy.getPixel(i, j), 1 / 255.0));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedData() throws Exception {
+		read("P6\n2 2\n255\nabc".getBytes());
+	}
+
+	@Test(expected = IOException.class)
+	public void testSizeTooLarge() throws Exception {
+		// 3 X 100000 X 100000 samples don't fit in an int
+		read("P6\n100000 100000\n255\nabc".getBytes());
+	}
+
+	@Test
+	public void testBadFileLeavesImageAlone() throws Exception {
+		File file = File.createTempFile("ppmreader", ".ppm");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write("P3\n40000 40000\n255\n0 0 0\n".getBytes());
+			out.close();
+
+			RGBImage image = new RGBImage(4, 3);
+			try {
+				PPMReader.read(file.getPath(), image);
+				fail();
+			} catch (IOException e) {
+			}
+			assertEquals(4, image.getWidth());
+			assertEquals(3, image.getHeight());
+			assertEquals(new Vector3d(), image.getPixel(3, 2));
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/* class PPMWriter
+ * Writes a binary PPM file a band of rows at a time, so that an image can
+ * be saved while it is rendered without ever holding all of it in memory
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+class PPMWriter
+{
+    RandomAccessFile file;
+    FileChannel      channel;
+    int width  = 0;
+    int height = 0;
+
+    // Where the pixel data starts in the file
+    long headerLength = 0;
+
+    // Bytes of the band being written (reused from band to band)
+    byte[] bandOut = new byte[0];
+
+    //------------------------------------------------------------------------
+
+    /** Create (or truncate) the file and write its header */
+    public PPMWriter(String fileName, int newWidth, int newHeight)
+        throws IOException
+    {
+        width  = newWidth;
+        height = newHeight;
+
+        file = new RandomAccessFile(fileName, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+
+        byte[] header = RGBImage.ppmHeader(width, height).getBytes();
+        writeFully(ByteBuffer.wrap(header), 0);
+        headerLength = header.length;
+    }
+
+    /** Write rows j0 .. j0+count-1 of the image, which are held in rows
+     *  0 .. count-1 of band (a width X count or larger image)
+     */
+    public void writeRows(RGBImage band, int j0, int count)
+        throws IOException
+    {
+        if (band.getWidth() != width)
+          throw new IllegalArgumentException("Band width " + band.getWidth() +
+                                             " does not match image width " +
+                                             width);
+        if (j0 < 0 || count < 0 || j0 + count > height || count > band.getHeight())
+          throw new IllegalArgumentException("Rows " + j0 + " to " +
+                                             (j0 + count - 1) +
+                                             " are outside of the image");
+
+        int rowLength = width * 3;
+        if (bandOut.length < rowLength * count)
+          bandOut = new byte[rowLength * count];
+
+        // Rows go top to bottom in the file, so the band is one contiguous
+        // run of the file starting with its top row
+        int pos = 0;
+        for (int r = count - 1; r >= 0; r--) {
+            band.getRowBytes(r, bandOut, pos);
+            pos += rowLength;
+        }
+
+        long offset = headerLength + (long)(height - j0 - count) * rowLength;
+        writeFully(ByteBuffer.wrap(bandOut, 0, pos), offset);
+    }
+
+    /** Finish writing the file */
+    public void close()
+        throws IOException
+    {
+        // Make sure the file has its full length, even if rows are missing
+        file.setLength(headerLength + (long)width * height * 3);
+        channel.close();
+        file.close();
+    }
+
+    private void writeFully(ByteBuffer buffer, long offset)
+        throws IOException
+    {
+        while (buffer.hasRemaining())
+          offset += channel.write(buffer, offset);
+    }
+}
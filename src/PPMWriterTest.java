@@ -0,0 +1,62 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+
+public class PPMWriterTest {
+
+	@Test
+	public void testBandsMatchWholeImage() throws Exception {
+		int width = 7, height = 10, bandRows = 4;
+		RGBImage image = new RGBImage(width, height);
+		for (int i = 0; i < width; i++)
+			for (int j = 0; j < height; j++)
+				image.setPixel(i, j, new Vector3d(i / 6.0, j / 9.0, (i + j) % 2));
+
+		File whole = File.createTempFile("whole", ".ppm");
+		File banded = File.createTempFile("banded", ".ppm");
+		try {
+			image.write(whole.getPath());
+
+			// Write bands out of order, the last one shorter than the rest
+			PPMWriter out = new PPMWriter(banded.getPath(), width, height);
+			RGBImage band = new RGBImage(width, bandRows);
+			int[] starts = { 4, 8, 0 };
+			for (int b = 0; b < starts.length; b++) {
+				int count = Math.min(bandRows, height - starts[b]);
+				for (int i = 0; i < width; i++)
+					for (int r = 0; r < count; r++)
+						band.setPixel(i, r, new Vector3d(i / 6.0, (starts[b] + r) / 9.0,
+								(i + starts[b] + r) % 2));
+				out.writeRows(band, starts[b], count);
+			}
+			out.close();
+
+			assertArrayEquals(Files.readAllBytes(whole.toPath()),
+					Files.readAllBytes(banded.toPath()));
+		} finally {
+			whole.delete();
+			banded.delete();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRowsOutsideImage() throws Exception {
+		File file = File.createTempFile("rows", ".ppm");
+		try {
+			PPMWriter out = new PPMWriter(file.getPath(), 3, 3);
+			try {
+				out.writeRows(new RGBImage(3, 2), 2, 2);
+			} finally {
+				out.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -6,29 +6,101 @@
 import java.io.*;
 import java.text.ParseException;
 import java.lang.reflect.*;
+import java.util.*;
 import javax.vecmath.*;
 
 /** Implements a parser for the input file format */
 class Parser
 {
-    private static Class[] objectTypes;
+    /** makes an object of one type, reading its content from the
+        tokenizer
+    */
+    static abstract class ObjectType
+    {
+       abstract RaytracerObject read(StreamTokenizer tokenizer)
+                throws ParseException, IOException, NoSuchMethodException,
+                       ClassNotFoundException, IllegalAccessException,
+                       InvocationTargetException;
+    }
+
+    /** the object types, by keyword */
+    private static final HashMap<String, ObjectType> objectTypes =
+       new HashMap<String, ObjectType>();
+
+    static {
+       // to add the actual types once they're created
+       objectTypes.put(Material.keyword, new ObjectType() {
+          RaytracerObject read(StreamTokenizer tokenizer)
+                throws ParseException, IOException, NoSuchMethodException,
+                       ClassNotFoundException, IllegalAccessException,
+                       InvocationTargetException {
+             return new Material(tokenizer);
+          }
+       });
+       objectTypes.put(Light.keyword, new ObjectType() {
+          RaytracerObject read(StreamTokenizer tokenizer)
+                throws ParseException, IOException, NoSuchMethodException,
+                       ClassNotFoundException, IllegalAccessException,
+                       InvocationTargetException {
+             return new Light(tokenizer);
+          }
+       });
+       objectTypes.put(Sphere.keyword, new ObjectType() {
+          RaytracerObject read(StreamTokenizer tokenizer)
+                throws ParseException, IOException, NoSuchMethodException,
+                       ClassNotFoundException, IllegalAccessException,
+                       InvocationTargetException {
+             return new Sphere(tokenizer);
+          }
+       });
+       objectTypes.put(Cylinder.keyword, new ObjectType() {
+          RaytracerObject read(StreamTokenizer tokenizer)
+                throws ParseException, IOException, NoSuchMethodException,
+                       ClassNotFoundException, IllegalAccessException,
+                       InvocationTargetException {
+             return new Cylinder(tokenizer);
+          }
+       });
+       objectTypes.put(Cone.keyword, new ObjectType() {
+          RaytracerObject read(StreamTokenizer tokenizer)
+                throws ParseException, IOException, NoSuchMethodException,
+                       ClassNotFoundException, IllegalAccessException,
+                       InvocationTargetException {
+             return new Cone(tokenizer);
+          }
+       });
+       objectTypes.put(Box.keyword, new ObjectType() {
+          RaytracerObject read(StreamTokenizer tokenizer)
+                throws ParseException, IOException, NoSuchMethodException,
+                       ClassNotFoundException, IllegalAccessException,
+                       InvocationTargetException {
+             return new Box(tokenizer);
+          }
+       });
+       objectTypes.put(Mesh.keyword, new ObjectType() {
+          RaytracerObject read(StreamTokenizer tokenizer)
+                throws ParseException, IOException, NoSuchMethodException,
+                       ClassNotFoundException, IllegalAccessException,
+                       InvocationTargetException {
+             return new Mesh(tokenizer);
+          }
+       });
+       objectTypes.put(Camera.keyword, new ObjectType() {
+          RaytracerObject read(StreamTokenizer tokenizer)
+                throws ParseException, IOException, NoSuchMethodException,
+                       ClassNotFoundException, IllegalAccessException,
+                       InvocationTargetException {
+             return new Camera(tokenizer);
+          }
+       });
+    }
+
     private static Scene   mainScene;
 
     public Parser(Scene s)
            throws ClassNotFoundException
     {
        mainScene = s;
-       // initialize the array of object types
-       objectTypes = new Class[8];
-
-       // to add the actual types once they're created
-       objectTypes[0] = Class.forName("Material");
-       objectTypes[1] = Class.forName("Light");
-       objectTypes[2] = Class.forName("Sphere");
-       objectTypes[3] = Class.forName("Cylinder");
-       objectTypes[4] = Class.forName("Cone");
-       objectTypes[5] = Class.forName("Box");
-       objectTypes[6] = Class.forName("Camera");
     }
 
     //------------------------------------------------------------------------
@@ -42,7 +114,8 @@ class Parser
 
        try
        {
-          FileReader input = new FileReader(fileName);
+          Reader input = new BufferedReader(new FileReader(fileName),
+                                            1 << 16);
 
           // create the tokenizer and set its parameters
           StreamTokenizer tokenizer = new StreamTokenizer(input);
@@ -103,55 +176,24 @@ class Parser
                         NoSuchMethodException, InstantiationException,
                         IllegalAccessException, IOException
     {
-       try
-       {
-          if ( tokenizer.ttype == StreamTokenizer.TT_WORD ) {
-             int i;
-             for ( i=0; i<objectTypes.length; i++)
-                 if (objectTypes[i]!=null){
-                   // check for the value of the "keyword" field
-                   Field keyword = objectTypes[i].getDeclaredField("keyword");
-                   java.lang.String s = new java.lang.String();
-                   s=(String)keyword.get(null);
-
-                   // if the keyword mathches the current token
-                   if (s.compareTo(tokenizer.sval)==0) {
-                      // create a new instance of the class
-                      Class[] list = {Class.forName("java.io.StreamTokenizer")};
-                      Constructor c = objectTypes[i].getConstructor(list);
+       if ( tokenizer.ttype == StreamTokenizer.TT_WORD ) {
+          ObjectType type = objectTypes.get(tokenizer.sval);
 
-                      Object[] listOfParameters = {tokenizer};
-                      Object newObject = c.newInstance(listOfParameters);
+          if (type != null) {
+             // create a new instance of the class
+             RaytracerObject newObject = type.read(tokenizer);
 
-                      mainScene.addObject((RaytracerObject)newObject);
+             mainScene.addObject(newObject);
 
-		      //((RaytracerObject)newObject).print(System.out);
-
-                      // exit the loop
-                      break;
-                   }
-                 }
-             if (i>=objectTypes.length) {
-		 // the keyword did not match any object type.
-		 // It must be a scene command
-		 SceneCommand sc = new SceneCommand(tokenizer, mainScene);
-             }
+             //newObject.print(System.out);
+          } else {
+             // the keyword did not match any object type.
+             // It must be a scene command
+             SceneCommand sc = new SceneCommand(tokenizer, mainScene);
           }
-          else
-          throw new ParseException("Unknown object type.", tokenizer.lineno());
-       }
-       catch (NoSuchFieldException E)
-       {
-          System.err.print(tokenizer.sval);
-          System.err.println("does not have the \"keyword\" field.");
-          throw E;
-       }
-       catch (InvocationTargetException E)
-       {
-          System.err.print("Could not instanciate class for ");
-          System.err.println(tokenizer.sval + " object ");
-          throw E;
        }
+       else
+       throw new ParseException("Unknown object type.", tokenizer.lineno());
     }
 
 
@@ -235,14 +277,16 @@ class Parser
     }
 
 
-    /** reads a string from the tokenizer
+    /** reads a string from the tokenizer (a word, or a quoted string --
+        for file names with slashes in them)
         @param tokenizer the tokenizer to read from
     */
     public static String readString(StreamTokenizer tokenizer)
            throws ParseException, IOException
     {
        tokenizer.nextToken();
-       if (tokenizer.ttype != StreamTokenizer.TT_WORD)
+       if (tokenizer.ttype != StreamTokenizer.TT_WORD &&
+           tokenizer.ttype != '"' && tokenizer.ttype != '\'')
                throw new ParseException("String expected "+tokenizer,
                                         tokenizer.lineno());
        return tokenizer.sval;
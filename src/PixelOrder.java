@@ -0,0 +1,163 @@
+/* class PixelOrder
+ * The order in which the pixels of a frame are traced: the order of the
+ * tiles, and of the pixels within each tile
+ *
+ *  - columns  : square tiles column by column, each a column at a time
+ *  - scanline : bands of rows the width of the image, each a row at a time
+ *  - tiled    : square tiles row by row, each a row at a time
+ *  - morton   : square tiles, and their pixels, along a Z-order curve
+ *  - hilbert  : square tiles, and their pixels, along a Hilbert curve
+ *
+ * Rays traced one after another hit much the same shapes, BVH nodes and
+ * texels if they are close together, so orders that keep each stretch
+ * of pixels compact (the curves above all) find more of those still in
+ * the cache.  The colors of the pixels are the same in any order.
+ */
+class PixelOrder
+{
+    static final int COLUMNS  = 0;
+    static final int SCANLINE = 1;
+    static final int TILED    = 2;
+    static final int MORTON   = 3;
+    static final int HILBERT  = 4;
+
+    static final String[] names = { "columns", "scanline", "tiled",
+                                    "morton", "hilbert" };
+
+    /** the order with the given name */
+    static int named(String name)
+    {
+        for (int order = 0; order < names.length; order++)
+          if (names[order].equals(name))
+            return order;
+        throw new IllegalArgumentException("Unknown pixel order: " + name);
+    }
+
+    //------------------------------------------------------------------------
+
+    /** split the pixels [x0, x1) x [y0, y1) into tiles of (at most)
+     *  size X size (or, for scanline order, bands of size rows), in the
+     *  order they are to be rendered
+     */
+    static Tile[] split(int order, int x0, int y0, int x1, int y1, int size)
+    {
+        if (order == SCANLINE) {
+            // Bands the width of the image, size rows high
+            Tile[] bands = new Tile[(y1 - y0 + size - 1) / size];
+            for (int b = 0; b < bands.length; b++)
+              bands[b] = new Tile(x0, y0 + b * size, x1,
+                                  Math.min(y0 + (b + 1) * size, y1));
+            return bands;
+        }
+
+        Tile[] tiles = Tile.split(x0, y0, x1, y1, size);
+        if (order == COLUMNS)
+          return tiles;
+
+        // Tile.split() goes column by column
+        int tilesX = (x1 - x0 + size - 1) / size;
+        int tilesY = (y1 - y0 + size - 1) / size;
+        int[] cells = cells(order, tilesX, tilesY);
+
+        Tile[] ordered = new Tile[tiles.length];
+        for (int k = 0; k < cells.length; k++) {
+            int tx = cells[k] % tilesX, ty = cells[k] / tilesX;
+            ordered[k] = tiles[tx * tilesY + ty];
+        }
+        return ordered;
+    }
+
+    /** the pixels of a tile in the order they are to be traced, each as
+     *  (j - tile.y0) * tile width + (i - tile.x0)
+     */
+    static int[] pixels(int order, Tile tile)
+    {
+        return cells(order, tile.getWidth(), tile.getHeight());
+    }
+
+    /** the cells (x,y) of a width X height grid in an order, each as
+     *  y * width + x
+     */
+    static int[] cells(int order, int width, int height)
+    {
+        int[] cells = new int[width * height];
+        int k = 0;
+
+        switch (order) {
+        case COLUMNS:
+            for (int x = 0; x < width; x++)
+              for (int y = 0; y < height; y++)
+                cells[k++] = y * width + x;
+            break;
+
+        case SCANLINE:
+        case TILED:
+            for (k = 0; k < cells.length; k++)
+              cells[k] = k;
+            break;
+
+        default:
+            // Walk the curve over the smallest power-of-two square that
+            // covers the grid, skipping the points outside it
+            int side = 1;
+            while (side < width || side < height)
+              side *= 2;
+            for (int d = 0; k < cells.length; d++) {
+                int x, y;
+                if (order == MORTON) {
+                    x = compact(d);
+                    y = compact(d >>> 1);
+                } else {
+                    int xy = hilbert(side, d);
+                    x = xy & 0xffff;
+                    y = xy >>> 16;
+                }
+                if (x < width && y < height)
+                  cells[k++] = y * width + x;
+            }
+        }
+
+        return cells;
+    }
+
+    /** the even bits of d, packed together (the x coordinate of the point
+     *  of the Z-order curve at distance d)
+     */
+    private static int compact(int d)
+    {
+        d &= 0x55555555;
+        d = (d | (d >>> 1)) & 0x33333333;
+        d = (d | (d >>> 2)) & 0x0f0f0f0f;
+        d = (d | (d >>> 4)) & 0x00ff00ff;
+        d = (d | (d >>> 8)) & 0x0000ffff;
+        return d;
+    }
+
+    /** the point at distance d along the Hilbert curve over a side X side
+     *  square (side a power of two), as y << 16 | x
+     */
+    private static int hilbert(int side, int d)
+    {
+        int x = 0, y = 0;
+        for (int s = 1; s < side; s *= 2) {
+            int rx = 1 & (d / 2);
+            int ry = 1 & (d ^ rx);
+
+            // Rotate the quadrant
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+
+            x += s * rx;
+            y += s * ry;
+            d /= 4;
+        }
+        return y << 16 | x;
+    }
+}
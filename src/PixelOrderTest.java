@@ -0,0 +1,74 @@
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+
+public class PixelOrderTest {
+
+	@Test
+	public void testEveryCellOnce() {
+		int[][] grids = { {1, 1}, {16, 16}, {5, 3}, {3, 11}, {16, 7} };
+		for (int order = 0; order < PixelOrder.names.length; order++)
+			for (int[] grid : grids) {
+				int[] cells = PixelOrder.cells(order, grid[0], grid[1]);
+				boolean[] seen = new boolean[grid[0] * grid[1]];
+				assertEquals(seen.length, cells.length);
+				for (int c : cells) {
+					assertFalse(seen[c]);
+					seen[c] = true;
+				}
+			}
+	}
+
+	@Test
+	public void testCurves() {
+		// Z-order: each 2 X 2 block, then the next
+		int[] morton = PixelOrder.cells(PixelOrder.MORTON, 4, 4);
+		assertArrayEquals(new int[] { 0, 1, 4, 5, 2, 3, 6, 7 },
+				  Arrays.copyOf(morton, 8));
+
+		// Hilbert: every step is to a neighboring cell
+		int[] hilbert = PixelOrder.cells(PixelOrder.HILBERT, 16, 16);
+		for (int k = 1; k < hilbert.length; k++) {
+			int dx = Math.abs(hilbert[k] % 16 - hilbert[k-1] % 16);
+			int dy = Math.abs(hilbert[k] / 16 - hilbert[k-1] / 16);
+			assertEquals(1, dx + dy);
+		}
+	}
+
+	@Test
+	public void testTilesCoverTheImage() {
+		for (int order = 0; order < PixelOrder.names.length; order++) {
+			Tile[] tiles = PixelOrder.split(order, 0, 3, 37, 40, 8);
+			int pixels = 0;
+			for (Tile t : tiles) {
+				assertTrue(t.x0 >= 0 && t.x1 <= 37 && t.y0 >= 3 && t.y1 <= 40);
+				pixels += t.getWidth() * t.getHeight();
+			}
+			assertEquals(37 * 37, pixels);
+		}
+		assertEquals(5, PixelOrder.split(PixelOrder.SCANLINE, 0, 3, 37, 40, 8).length);
+		assertEquals(PixelOrder.HILBERT, PixelOrder.named("hilbert"));
+	}
+
+	@Test
+	public void testSameImageInAnyOrder() throws Exception {
+		Scene s = SceneTest.scene(SceneTest.mirrors);
+		s.tileSize = 8;
+		for (boolean adaptive : new boolean[] { false, true }) {
+			s.pixelOrder = PixelOrder.COLUMNS;
+			RGBImage expected = s.render(29, 21, false, adaptive, 1);
+
+			for (int order = 0; order < PixelOrder.names.length; order++) {
+				s.pixelOrder = order;
+				RGBImage image = s.render(29, 21, false, adaptive, 2);
+				for (int i = 0; i < 29; i++)
+					for (int j = 0; j < 21; j++)
+						assertEquals(PixelOrder.names[order],
+							     expected.getPixel(i, j), image.getPixel(i, j));
+			}
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/* class ProgressiveRenderer
+ * Renders a frame in passes that each refine the last, so that there is
+ * an image to save whenever rendering has to stop
+ *
+ * The first pass traces the centers of the pixels on a coarse lattice
+ * (every coarseStep pixels, and the last row and column).  Each later
+ * pass halves the spacing, but only traces the new points inside blocks
+ * of the previous lattice whose corner colors differ (by the adaptive
+ * sampling threshold); smooth blocks are left to be interpolated.  Once
+ * the spacing is down to one pixel, a pass traces every pixel still
+ * missing -- the image is then the same as a normal rendering -- and
+ * with adaptive sampling a last one samples every pixel again through
+ * an AdaptiveSampler, which makes it the same as a normal adaptive
+ * rendering.
+ *
+ * Rendering stops at the deadline (but never before the first pass is
+ * done).  Pixels that have not been traced are interpolated from the
+ * corners of the smallest block around them that has all four.
+ */
+import java.util.*;
+import java.util.concurrent.*;
+import javax.vecmath.*;
+
+class ProgressiveRenderer
+{
+    // Kinds of pass
+    static final int COARSE      = 0;
+    static final int REFINE      = 1;
+    static final int FILL        = 2;
+    static final int SUPERSAMPLE = 3;
+
+    Scene scene;
+    int width  = 0;
+    int height = 0;
+
+    // Spacing of the first lattice (a power of two)
+    int coarseStep;
+
+    // System.nanoTime() at which to stop
+    long deadline;
+    volatile boolean outOfTime = false;
+
+    // Colors of the pixels traced so far (3 per pixel, row by row)
+    double[]  colors;
+    boolean[] traced;
+
+    // Passes done, and whether the last one was finished
+    int passes = 0;
+    boolean complete = false;
+
+    //------------------------------------------------------------------------
+
+    public ProgressiveRenderer(Scene newScene, int newWidth, int newHeight,
+                               int newCoarseStep, long newDeadline)
+    {
+        scene      = newScene;
+        width      = newWidth;
+        height     = newHeight;
+        coarseStep = newCoarseStep;
+        deadline   = newDeadline;
+
+        colors = new double[3 * width * height];
+        traced = new boolean[width * height];
+    }
+
+    /** render the passes, each split into the given tiles (on the pool,
+     *  if there is one), until they are all done or time runs out
+     */
+    public void render(Tile[] tiles, boolean adaptive, boolean verbose,
+                       ForkJoinPool pool)
+    {
+        runPass(tiles, COARSE, coarseStep, verbose, pool);
+        for (int step = coarseStep / 2; step >= 1 && !isOutOfTime(); step /= 2)
+          runPass(tiles, REFINE, step, verbose, pool);
+        if (!isOutOfTime())
+          runPass(tiles, FILL, 1, verbose, pool);
+        if (adaptive && !isOutOfTime())
+          runPass(tiles, SUPERSAMPLE, 1, verbose, pool);
+
+        complete = !outOfTime;
+    }
+
+    /** has the deadline passed? (checked before every pixel) */
+    private boolean isOutOfTime()
+    {
+        if (!outOfTime && System.nanoTime() > deadline)
+          outOfTime = true;
+        return outOfTime;
+    }
+
+    /** run a pass over every tile (the first pass is never cut short) */
+    void runPass(Tile[] tiles, final int kind, final int step,
+                 boolean verbose, ForkJoinPool pool)
+    {
+        long raysBefore = scene.frameStats.primaryRays;
+
+        Vector<Callable<Object>> tasks = new Vector<Callable<Object>>();
+        for (int k = 0; k < tiles.length; k++) {
+            final Tile tile = tiles[k];
+            tasks.addElement(new Callable<Object>() {
+                public Object call() {
+                    renderTile(tile, kind, step);
+                    return null;
+                }
+            });
+        }
+        scene.runTasks(tasks, pool);
+
+        passes++;
+
+        if (verbose)
+          System.out.println(String.format(
+              "Pass %d (%s, every %d pixels): %d rays%s", passes,
+              kind == COARSE ? "coarse" : kind == REFINE ? "refine" :
+              kind == FILL ? "fill" : "supersample", step,
+              scene.frameStats.primaryRays - raysBefore,
+              outOfTime ? " (out of time)" : ""));
+    }
+
+    /** trace the points of a tile that a pass calls for (may be called
+     *  from any thread)
+     */
+    private void renderTile(Tile tile, int kind, int step)
+    {
+        AdaptiveSampler sampler = kind == SUPERSAMPLE ?
+            new AdaptiveSampler(scene, tile, scene.maxAdaptiveLevel) : null;
+
+        RenderStats stats = scene.shadingContext.get().stats;
+        CostMap costs = scene.costMap;
+
+        for (int i = tile.x0; i < tile.x1; i++) {
+            for (int j = tile.y0; j < tile.y1; j++) {
+                if (kind != COARSE && isOutOfTime())
+                  break;
+
+                boolean trace;
+                switch (kind) {
+                case COARSE:
+                    trace = onLattice(i, j, step);
+                    break;
+                case REFINE:
+                    trace = onLattice(i, j, step) &&
+                            !onLattice(i, j, 2 * step) &&
+                            inSplitBlock(i, j, 2 * step);
+                    break;
+                case FILL:
+                    trace = !traced[j*width + i];
+                    break;
+                default:
+                    // (the sampler decides which pixels to split)
+                    trace = true;
+                }
+                if (!trace)
+                  continue;
+
+                long start = costs != null ? costs.reading(stats) : 0;
+
+                Vector3d color = kind == SUPERSAMPLE ? sampler.sample(i, j)
+                                                     : scene.tracePixel(i, j);
+                int k = j*width + i;
+                colors[3*k]   = color.x;
+                colors[3*k+1] = color.y;
+                colors[3*k+2] = color.z;
+                traced[k] = true;
+
+                if (costs != null)
+                  costs.record(i, j, start, stats);
+            }
+        }
+
+        scene.collectStats(sampler);
+    }
+
+    //------------------------------------------------------------------------
+    // Lattices and blocks
+
+    /** is pixel (i,j) on the lattice of spacing step? (the last row and
+     *  column are on every lattice)
+     */
+    private boolean onLattice(int i, int j, int step)
+    {
+        return (i % step == 0 || i == width - 1) &&
+               (j % step == 0 || j == height - 1);
+    }
+
+    /** does pixel (i,j) lie in (or on the edge of) a block of the lattice
+     *  of spacing size whose corner colors differ?
+     */
+    private boolean inSplitBlock(int i, int j, int size)
+    {
+        // A pixel on a line of the lattice is on the edge of the blocks
+        // on both sides of it
+        for (int x = i - i % size; x >= Math.max(0, i - size); x -= size)
+          for (int y = j - j % size; y >= Math.max(0, j - size); y -= size)
+            if (isSplit(x, y, size))
+              return true;
+        return false;
+    }
+
+    /** were all the corners of the block at (x,y) of size X size traced,
+     *  and do their colors differ?
+     */
+    private boolean isSplit(int x, int y, int size)
+    {
+        int x1 = Math.min(x + size, width - 1);
+        int y1 = Math.min(y + size, height - 1);
+        if (!traced[y*width + x] || !traced[y*width + x1] ||
+            !traced[y1*width + x] || !traced[y1*width + x1])
+          return false;
+
+        return !scene.areColorsSimilar(color(x, y), color(x1, y),
+                                       color(x, y1), color(x1, y1));
+    }
+
+    private Vector3d color(int i, int j)
+    {
+        int k = 3 * (j*width + i);
+        return new Vector3d(colors[k], colors[k+1], colors[k+2]);
+    }
+
+    //------------------------------------------------------------------------
+    // Output
+
+    /** the best image so far */
+    public RGBImage toImage()
+    {
+        RGBImage image = new RGBImage(width, height);
+        Vector3d color = new Vector3d();
+
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                if (traced[j*width + i]) {
+                    int k = 3 * (j*width + i);
+                    color.set(colors[k], colors[k+1], colors[k+2]);
+                } else {
+                    interpolate(i, j, color);
+                }
+                image.setPixel(i, j, color);
+            }
+        }
+
+        return image;
+    }
+
+    /** interpolate the color of pixel (i,j) from the corners of the
+     *  smallest block around it that were all traced (the blocks of the
+     *  first pass always were)
+     */
+    private void interpolate(int i, int j, Vector3d color)
+    {
+        for (int size = 2; ; size *= 2) {
+            int x0 = i - i % size, y0 = j - j % size;
+            int x1 = Math.min(x0 + size, width - 1);
+            int y1 = Math.min(y0 + size, height - 1);
+            if (size < coarseStep &&
+                (!traced[y0*width + x0] || !traced[y0*width + x1] ||
+                 !traced[y1*width + x0] || !traced[y1*width + x1]))
+              continue;
+
+            double a = x1 > x0 ? (double)(i - x0) / (x1 - x0) : 0;
+            double b = y1 > y0 ? (double)(j - y0) / (y1 - y0) : 0;
+
+            color.scale((1-a) * (1-b), color(x0, y0));
+            color.scaleAdd(a * (1-b), color(x1, y0), color);
+            color.scaleAdd((1-a) * b, color(x0, y1), color);
+            color.scaleAdd(a * b, color(x1, y1), color);
+            return;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+
+public class ProgressiveRendererTest {
+	static final int width = 37, height = 23;
+
+	static void assertSameImage(RGBImage expected, RGBImage actual) {
+		for (int i = 0; i < width; i++)
+			for (int j = 0; j < height; j++)
+				assertEquals("pixel " + i + ", " + j,
+					     expected.getPixel(i, j), actual.getPixel(i, j));
+	}
+
+	@Test
+	public void testFinishedIsTheSameAsRender() throws Exception {
+		Scene s = SceneTest.scene(SceneTest.mirrors);
+		s.tileSize = 8;
+		RGBImage expected = s.render(width, height, false, false, 1);
+
+		for (int threads = 1; threads <= 3; threads += 2) {
+			RGBImage progressive = s.renderProgressive(width, height, false,
+								   false, threads, -1);
+			assertSameImage(expected, progressive);
+
+			// Every pixel was traced once
+			assertEquals(width * height, s.frameStats.primaryRays);
+		}
+	}
+
+	@Test
+	public void testCoarsePassIsInterpolated() throws Exception {
+		Scene s = SceneTest.scene(SceneTest.mirrors);
+		s.tileSize = 8;
+		RGBImage full = s.render(width, height, false, false, 1);
+
+		// Out of time right away: only the first pass is done
+		ProgressiveRenderer renderer =
+			new ProgressiveRenderer(s, width, height, 8, 0);
+		renderer.render(Tile.split(width, height, 8), false, false, null);
+		assertEquals(1, renderer.passes);
+		assertFalse(renderer.complete);
+
+		// The lattice points (including the last row and column) are
+		// traced, and the pixels between them come out in between
+		RGBImage coarse = renderer.toImage();
+		int[] xs = { 0, 8, 16, 24, 32, width - 1 };
+		int[] ys = { 0, 8, 16, height - 1 };
+		for (int x : xs)
+			for (int y : ys)
+				assertEquals(full.getPixel(x, y), coarse.getPixel(x, y));
+
+		double a = coarse.getPixel(0, 0).x, b = coarse.getPixel(8, 0).x;
+		double between = coarse.getPixel(4, 0).x;
+		assertTrue(between >= Math.min(a, b) && between <= Math.max(a, b));
+	}
+
+	static int tracedCount(ProgressiveRenderer renderer) {
+		int count = 0;
+		for (boolean t : renderer.traced)
+			if (t)
+				count++;
+		return count;
+	}
+
+	/** the number of pixels traced by the first pass and the refining ones */
+	static int refinedCount(Scene s) {
+		s.camera.setup(width, height);
+		s.imageWidth = width;
+		s.imageHeight = height;
+
+		Tile[] tiles = Tile.split(width, height, 8);
+		ProgressiveRenderer renderer =
+			new ProgressiveRenderer(s, width, height, 8, Long.MAX_VALUE);
+		renderer.runPass(tiles, ProgressiveRenderer.COARSE, 8, false, null);
+		// (every 8 pixels, and the last row and column)
+		assertEquals(6 * 4, tracedCount(renderer));
+
+		for (int step = 4; step >= 1; step /= 2)
+			renderer.runPass(tiles, ProgressiveRenderer.REFINE, step, false, null);
+		return tracedCount(renderer);
+	}
+
+	@Test
+	public void testOnlyBlocksThatDifferAreRefined() throws Exception {
+		// A plain wall: no block needs splitting
+		Scene wall = SceneTest.scene(
+			"light { position = (0, 0, 5) }\n" +
+			"translate { (0, 0, -5) }\nscale { (10, 10, 1) }\nbox { }\n");
+		assertEquals(6 * 4, refinedCount(wall));
+
+		// The sphere's edges need some, but not every pixel
+		int refined = refinedCount(SceneTest.scene(SceneTest.mirrors));
+		assertTrue(refined > 6 * 4);
+		assertTrue(refined < width * height);
+	}
+
+	@Test
+	public void testFinishedAdaptiveIsTheSameAsRender() throws Exception {
+		Scene s = SceneTest.scene(SceneTest.mirrors);
+		s.tileSize = 8;
+		RGBImage expected = s.render(width, height, false, true, 1);
+
+		for (int threads = 1; threads <= 3; threads += 2)
+			assertSameImage(expected, s.renderProgressive(width, height,
+					false, true, threads, -1));
+	}
+
+	@Test
+	public void testAdaptiveSupersamplesEdges() throws Exception {
+		Scene s = SceneTest.scene(SceneTest.mirrors);
+		s.render(width, height, false, false, 1);
+		long plainRays = s.frameStats.primaryRays;
+
+		RGBImage adaptive = s.renderProgressive(width, height, false, true, 2, -1);
+		assertTrue(s.frameStats.primaryRays > plainRays);
+		assertTrue(s.frameStats.adaptiveRaysCast > 0);
+		assertEquals(width, adaptive.getWidth());
+	}
+}
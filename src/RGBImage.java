@@ -8,7 +8,9 @@ import javax.vecmath.*;
 
 class RGBImage
 {
-    Vector3d[][] data;
+    // Pixels stored row by row (R, G, B for pixel (i,j) start at
+    // data[(j*width + i)*3]), as floats to keep large images compact
+    float[] data;
     int width  = 0;
     int height = 0;
     int depth  = 3;
@@ -33,10 +35,7 @@ class RGBImage
        // length of the file to be written
        length = width * height * depth;
 
-       data = new Vector3d[width][height];
-       for (int i=0; i < data.length; i++)
-           for (int j=0; j < data[i].length; j++)
-               data[i][j] = new Vector3d();
+       data = new float[length];
     }
 
     //-----------------------------------------------------------------------
@@ -44,31 +43,47 @@ class RGBImage
     public int getWidth()  { return width; }
     public int getHeight() { return height; }
 
-    /** Get value of pixel (i,j) */
+    /** Get value of pixel (i,j) (as a new vector) */
     public Vector3d getPixel(int i, int j)
     {
-	return data[i][j];
+	Vector3d pixel = new Vector3d();
+	getPixel(i, j, pixel);
+	return pixel;
+    }
+
+    /** Get value of pixel (i,j) into target */
+    public void getPixel(int i, int j, Tuple3d target)
+    {
+	int k = (j*width + i)*3;
+	target.set(data[k], data[k+1], data[k+2]);
     }
 
     /** Set value of pixel (i,j) */
     public void setPixel(int i, int j, Vector3d newVal)
     {
-	data[i][j].set(newVal);
-
-	adjustColor(data[i][j]);
+	int k = (j*width + i)*3;
+	data[k]   = adjustColor(newVal.x);
+	data[k+1] = adjustColor(newVal.y);
+	data[k+2] = adjustColor(newVal.z);
     }
 
     /** Make sure pixel value is in correct range */
-    private void adjustColor(Vector3d color)
+    private static float adjustColor(double color)
     {
+	// Negative values (and NaN) are black (the gamma of a negative
+	// number is NaN, which would get past the clamp below)
+	if (!(color > 0))
+	  return 0f;
+
 	// Gamma convert to match display (for better contrast)
 	double gamma = 2.4;
-	color.x = Math.pow(color.x, 1.0/gamma);
-	color.y = Math.pow(color.y, 1.0/gamma);
-	color.z = Math.pow(color.z, 1.0/gamma);
+	color = Math.pow(color, 1.0/gamma);
 
 	// clamp RGB values to [0,1]
-	color.clamp(0.0, 1.0);
+	if (color > 1.0)
+	  color = 1.0;
+
+	return (float)color;
     }
 
     /** Determine the pixel value at a location of the images by bi-linear
@@ -76,138 +91,63 @@ class RGBImage
      * (u and v are both in the range [0,1])
      */
     public Vector3d getSubPixel(double u, double v)
+    {
+	Vector3d p = new Vector3d();
+	getSubPixel(u, v, p);
+	return p;
+    }
+
+    /** Same as getSubPixel(u, v), but puts the result in target */
+    public void getSubPixel(double u, double v, Tuple3d target)
     {
         double x = u * (width-1), y = v * (height-1);
         
         int x0 = (int)x, y0 = (int)y;
         double alphaX = x - x0, alphaY = y - y0;
-	
-        Vector3d p = new Vector3d(), p0 = new Vector3d();
+
+        // Neighbors past the edge (only reached with a weight of 0)
+        int x1 = Math.min(x0+1, width-1), y1 = Math.min(y0+1, height-1);
+
+        int k00 = (y0*width + x0)*3, k10 = (y0*width + x1)*3;
+        int k01 = (y1*width + x0)*3, k11 = (y1*width + x1)*3;
 
         // Add up weighted average of 4 neighbors
-        p0.scale((1-alphaX) * (1-alphaY), getPixel(x0  , y0));     p.add(p0);
-        p0.scale(  (alphaX) * (1-alphaY), getPixel(x0+1, y0));     p.add(p0);
-        p0.scale((1-alphaX) *   (alphaY), getPixel(x0  , y0+1));   p.add(p0);
-        p0.scale(  (alphaX) *   (alphaY), getPixel(x0+1, y0+1));   p.add(p0);
-        
-        return p;
+        double w00 = (1-alphaX) * (1-alphaY), w10 = (alphaX) * (1-alphaY);
+        double w01 = (1-alphaX) *   (alphaY), w11 = (alphaX) *   (alphaY);
+
+        target.set(w00*data[k00]   + w10*data[k10]   + w01*data[k01]   + w11*data[k11],
+                   w00*data[k00+1] + w10*data[k10+1] + w01*data[k01+1] + w11*data[k11+1],
+                   w00*data[k00+2] + w10*data[k10+2] + w01*data[k01+2] + w11*data[k11+2]);
     }
     
     //-----------------------------------------------------------------------
     // Image file I/O
 
-    /** Read the data using PPM format (text or binary) */
+    /** Read the data using PPM format (text or binary, 8 or 16 bits) */
     public void read(String filename)
+           throws IOException
     {
-	try {
-	    FileInputStream is = new FileInputStream(filename);
-	    LineInputStream in = new LineInputStream(is);
-	    
-	    // read header
-	    boolean raw;
-	    
-	    String magic = getsPPM(in);
-	    if (magic.equals("P6"))
-	      raw = true;
-	    else if (magic.equals("P3"))
-	      raw = false;
-	    else 
-	      throw new IOException("Not a PPM file");
-	    
-	    depth = 3;
-	    
-	    String size = getsPPM(in);
-	    width = Integer.parseInt(size.substring(0,size.indexOf(' ')));
-	    height = Integer.parseInt(size.substring(size.indexOf(' ')+1));
-	    
-	    data = new Vector3d[width][height];
-	    
-	    String max = getsPPM(in);
-	    if (Integer.parseInt(max) != 255) {
-		throw new IOException("Not a PPM file");
-	    }
-	    
-	    if (raw) {
-		// read raw data
-		byte brow[] = new byte[width*3];
-		for (int i=0; i < height; i++) {
-		    if (in.readdata(brow) != width*3)
-		      throw new IOException("File read error");
-		    for (int j=0, k=0; j < width*3; j += 3) {
-			int r = brow[j], g = brow[j+1], b = brow[j+2];
-			r = r < 0 ? r+256 : r;
-			g = g < 0 ? g+256 : g;
-			b = b < 0 ? b+256 : b;
-
-			data[k++][height-i-1] = 
-			  new Vector3d(r/255.0, g/255.0, b/255.0);
-		    }
-		}
-	    } else {
-		// read ascii data
-		for (int i=0; i < height; i++) {
-		    for(int j=0; j < width; j++) {
-			int r = Integer.parseInt(in.getw());
-			int g = Integer.parseInt(in.getw());
-			int b = Integer.parseInt(in.getw());
-
-			data[j][height-i-1] = 
-			  new Vector3d(r/255.0, g/255.0, b/255.0);
-		    }
-		}
-	    }
-	    in.close();
-
-	} catch (IOException e) {
-	    System.out.println(e);
-	    System.exit(-1);
-	}
-    }
-
-    // Read one line from PPM format image data, ignoring comments
-    private String getsPPM(LineInputStream in)
-    {
-	String line;
-	do {
-	    try { 
-		line = in.gets();
-	    } catch(IOException e) {
-		return "";
-	    }
-	} while(line.charAt(0) == '#');
-
-	return line;
+	PPMReader.read(filename, this);
     }
 
     /** Write the data using PPM format (binary) */
     public void write(String filename)
     {
-	String header = new String("P6" + '\n' +
-				   width + " " + height + '\n' +
-				   "255" + '\n');
-	// Space for image data
-	byte[] dataOut = new byte[length];
+	// Space for one row of image data
+	byte[] rowOut = new byte[width*3];
 	
 	try {
-	    FileOutputStream stream = new FileOutputStream(filename);
+	    OutputStream stream =
+		new BufferedOutputStream(new FileOutputStream(filename));
 
 	    // Write file header
-	    stream.write(header.getBytes());
-
-	    // Collect image bytes
-	    int pos = 0;
-	    for (int j=0; j < data[0].length; j++) {
-		for (int i=0; i < data.length; i++) {
-		    Vector3d pixel = getPixel(i,height-j-1);
-
-		    dataOut[pos++] = (byte)(255*pixel.x);
-		    dataOut[pos++] = (byte)(255*pixel.y);
-		    dataOut[pos++] = (byte)(255*pixel.z);
-		}
-	    }
+	    stream.write(ppmHeader(width, height).getBytes());
 
-	    // Write image contents
-	    stream.write(dataOut, 0, dataOut.length);
+	    // Write image contents (rows go top to bottom in the file)
+	    for (int j=height-1; j >= 0; j--) {
+		getRowBytes(j, rowOut, 0);
+		stream.write(rowOut, 0, rowOut.length);
+	    }
 
 	    stream.close();
 	} catch (IOException e) {
@@ -215,4 +155,18 @@ class RGBImage
 	    System.exit(-1);
 	}
     }
+
+    /** Header of a binary PPM file of size width X height */
+    static String ppmHeader(int width, int height)
+    {
+	return "P6" + '\n' + width + " " + height + '\n' + "255" + '\n';
+    }
+
+    /** Convert row j to PPM bytes, stored into out starting at offset */
+    public void getRowBytes(int j, byte[] out, int offset)
+    {
+	int k = j*width*3;
+	for (int i=0; i < width*3; i++)
+	    out[offset++] = (byte)(255*(double)data[k++]);
+    }
 }
@@ -0,0 +1,62 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+
+public class RGBImageTest {
+
+	@Test
+	public void testSetPixelAdjustsColor() {
+		RGBImage image = new RGBImage(4, 3);
+
+		// Gamma corrected, and clamped to [0,1]
+		image.setPixel(3, 2, new Vector3d(0.5, 2.0, -1.0));
+		Vector3d pixel = image.getPixel(3, 2);
+		assertEquals(Math.pow(0.5, 1 / 2.4), pixel.x, 1e-6);
+		assertEquals(1.0, pixel.y, 0);
+		assertEquals(0.0, pixel.z, 0);
+
+		// Other pixels are untouched
+		assertEquals(new Vector3d(), image.getPixel(2, 2));
+		assertEquals(new Vector3d(), image.getPixel(3, 1));
+	}
+
+	@Test
+	public void testGetSubPixelInterpolates() {
+		RGBImage image = new RGBImage(2, 2);
+		image.setPixel(0, 0, new Vector3d(0, 0, 0));
+		image.setPixel(1, 0, new Vector3d(1, 1, 1));
+		image.setPixel(0, 1, new Vector3d(0, 0, 0));
+		image.setPixel(1, 1, new Vector3d(1, 1, 1));
+
+		assertEquals(0.0,  image.getSubPixel(0, 0.5).x, 1e-6);
+		assertEquals(0.25, image.getSubPixel(0.25, 0.5).y, 1e-6);
+		assertEquals(1.0,  image.getSubPixel(1, 1).z, 1e-6);
+	}
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		RGBImage image = new RGBImage(5, 3);
+		for (int i = 0; i < 5; i++)
+			for (int j = 0; j < 3; j++)
+				image.setPixel(i, j, new Vector3d(i / 4.0, j / 2.0, 1));
+
+		File file = File.createTempFile("rgbimage", ".ppm");
+		try {
+			image.write(file.getPath());
+			RGBImage copy = new RGBImage(file.getPath());
+
+			assertEquals(5, copy.getWidth());
+			assertEquals(3, copy.getHeight());
+			for (int i = 0; i < 5; i++)
+				for (int j = 0; j < 3; j++)
+					assertTrue(image.getPixel(i, j).epsilonEquals(copy.getPixel(i, j), 1 / 255.0));
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -14,6 +14,10 @@ class Ray
     // Ray direction (d)
     Vector3d direction = new Vector3d();
 
+    // Distance travelled from the camera to the origin (for estimating
+    // how wide the ray is when it hits something)
+    double pathLength = 0;
+
     // ---------------------------------------------------------------------
 
     /** Constructors */
@@ -31,6 +35,7 @@ class Ray
     {
 	origin = new Point3d(original.origin);
 	direction = new Vector3d(original.direction);
+	pathLength = original.pathLength;
     }
 
     // ---------------------------------------------------------------------
@@ -0,0 +1,274 @@
+/* class RayPacket
+ * A bundle of primary rays through a block of neighboring pixels, traced
+ * through the BVH together (see BVH.intersect(RayPacket, ...))
+ *
+ * The origins and inverse directions are kept in arrays, one entry per
+ * ray, so a node's bounds are tested against the whole bundle in one
+ * loop.  When the rays all point the same way along every axis (the
+ * usual case, for a small block of pixels), the bundle also keeps the
+ * range of its origins and inverse directions, which bounds where any
+ * of its rays can enter a box: boxes that none of them can enter are
+ * skipped without looking at the rays one by one.
+ */
+class RayPacket
+{
+    // Number of rays in the bundle (at most the capacity)
+    int count = 0;
+
+    // The pixel each ray goes through
+    int[] pixelI, pixelJ;
+
+    // The rays (used for Shape.hit and for shading), and their origins
+    // and inverse directions by component
+    Ray[]    rays;
+    double[] ox, oy, oz;
+    double[] invX, invY, invZ;
+
+    // Closest hit found for each ray so far, its t, and the position of
+    // the object hit in the scene object list (-1 for none yet), and
+    // space for testing each ray against a shape (all reused from one
+    // bundle to the next: the hits are shaded before the next bundle)
+    ISect[]  hits;
+    ISect[]  tests;
+    double[] closestT;
+    int[]    closestIndex;
+
+    // Whether every inverse direction component is finite and has the
+    // same sign across the bundle, and if so the range of the origins
+    // and inverse directions (lo and hi, for x, y and z)
+    boolean coherent = false;
+    double[] originRange  = new double[6];
+    double[] inverseRange = new double[6];
+
+    // Rays [firstActive, lastActive) entered the last box tested by
+    // firstEnter() (the others did not)
+    int firstActive = 0;
+    int lastActive  = 0;
+
+    // Scratch space for BVH traversals: the nodes still to visit, the
+    // first t at which a ray enters each, and the rays that do, and the
+    // object space ray
+    int[]    stack      = new int[0];
+    double[] stackEnter = new double[0];
+    int[]    stackLo    = new int[0];
+    int[]    stackHi    = new int[0];
+    final Ray copy = new Ray();
+
+    //------------------------------------------------------------------------
+
+    public RayPacket(int capacity)
+    {
+        pixelI = new int[capacity];
+        pixelJ = new int[capacity];
+
+        rays  = new Ray[capacity];
+        hits  = new ISect[capacity];
+        tests = new ISect[capacity];
+        for (int k = 0; k < capacity; k++) {
+            rays[k]  = new Ray();
+            hits[k]  = new ISect();
+            tests[k] = new ISect();
+        }
+
+        ox   = new double[capacity];
+        oy   = new double[capacity];
+        oz   = new double[capacity];
+        invX = new double[capacity];
+        invY = new double[capacity];
+        invZ = new double[capacity];
+
+        closestT     = new double[capacity];
+        closestIndex = new int[capacity];
+    }
+
+    public int getCapacity() { return rays.length; }
+
+    /** empty the bundle */
+    public void clear()
+    {
+        count = 0;
+    }
+
+    /** the ray to fill in for pixel (i,j), added to the bundle */
+    public Ray add(int i, int j)
+    {
+        pixelI[count] = i;
+        pixelJ[count] = j;
+        return rays[count++];
+    }
+
+    /** copy the rays into the arrays and reset the hits, once all the
+     *  rays have been added
+     */
+    public void prepare()
+    {
+        coherent = count > 0;
+        for (int a = 0; a < 3; a++) {
+            originRange[a]    = inverseRange[a]   =  Double.MAX_VALUE;
+            originRange[3+a]  = inverseRange[3+a] = -Double.MAX_VALUE;
+        }
+
+        for (int k = 0; k < count; k++) {
+            Ray r = rays[k];
+            ox[k] = r.origin.x;
+            oy[k] = r.origin.y;
+            oz[k] = r.origin.z;
+            invX[k] = 1 / r.direction.x;
+            invY[k] = 1 / r.direction.y;
+            invZ[k] = 1 / r.direction.z;
+
+            // (As fresh as the ones intersect(Ray, ...) starts with)
+            hits[k].clear();
+            tests[k].clear();
+            closestT[k]     = Double.MAX_VALUE;
+            closestIndex[k] = -1;
+
+            include(0, ox[k], invX[k]);
+            include(1, oy[k], invY[k]);
+            include(2, oz[k], invZ[k]);
+        }
+
+        // The ranges only bound the rays if no inverse direction is
+        // infinite (a direction component of 0) or changes sign
+        for (int a = 0; a < 3 && coherent; a++)
+          coherent = inverseRange[3+a] < Double.POSITIVE_INFINITY &&
+                     inverseRange[a]   > Double.NEGATIVE_INFINITY &&
+                     (inverseRange[a] > 0 || inverseRange[3+a] < 0);
+    }
+
+    /** make the traversal stack hold at least size nodes */
+    void reserveStack(int size)
+    {
+        if (stack.length < size) {
+            stack      = new int[size];
+            stackEnter = new double[size];
+            stackLo    = new int[size];
+            stackHi    = new int[size];
+        }
+    }
+
+    private void include(int a, double origin, double inverse)
+    {
+        originRange[a]    = Math.min(originRange[a], origin);
+        originRange[3+a]  = Math.max(originRange[3+a], origin);
+        inverseRange[a]   = Math.min(inverseRange[a], inverse);
+        inverseRange[3+a] = Math.max(inverseRange[3+a], inverse);
+    }
+
+    //------------------------------------------------------------------------
+    // Bounds tests
+
+    /** the farthest closest hit of rays [lo, hi) (nothing entered beyond
+     *  it can matter to any of them)
+     */
+    double farthestHit(int lo, int hi)
+    {
+        double far = 0;
+        for (int k = lo; k < hi; k++)
+          far = Math.max(far, closestT[k]);
+        return far;
+    }
+
+    /** can none of the rays enter the box at box[b..b+6) (minX, minY,
+     *  minZ, maxX, maxY, maxZ) before maxT? (only known for a coherent
+     *  bundle; false means some might)
+     */
+    boolean missesAll(double[] box, int b, double maxT)
+    {
+        if (!coherent)
+          return false;
+
+        double near = 0, far = Double.POSITIVE_INFINITY;
+        for (int a = 0; a < 3; a++) {
+            // Ranges of (min - origin) and (max - origin) along axis a
+            double lo1 = box[b+a]   - originRange[3+a];
+            double hi1 = box[b+a]   - originRange[a];
+            double lo2 = box[b+3+a] - originRange[3+a];
+            double hi2 = box[b+3+a] - originRange[a];
+
+            // ... times the range of the inverse direction: the slab is
+            // entered at t1 and left at t2 for a positive direction, the
+            // other way around for a negative one
+            double i1 = inverseRange[a], i2 = inverseRange[3+a];
+            double t1lo = min(lo1 * i1, lo1 * i2, hi1 * i1, hi1 * i2);
+            double t1hi = max(lo1 * i1, lo1 * i2, hi1 * i1, hi1 * i2);
+            double t2lo = min(lo2 * i1, lo2 * i2, hi2 * i1, hi2 * i2);
+            double t2hi = max(lo2 * i1, lo2 * i2, hi2 * i1, hi2 * i2);
+
+            if (inverseRange[a] > 0) {
+                near = Math.max(near, t1lo);
+                far  = Math.min(far, t2hi);
+            } else {
+                near = Math.max(near, t2lo);
+                far  = Math.min(far, t1hi);
+            }
+        }
+
+        // Every ray enters after near and leaves before far
+        return near > far || near > maxT;
+    }
+
+    private static double min(double a, double b, double c, double d)
+    {
+        return Math.min(Math.min(a, b), Math.min(c, d));
+    }
+
+    private static double max(double a, double b, double c, double d)
+    {
+        return Math.max(Math.max(a, b), Math.max(c, d));
+    }
+
+    /** t at which ray k enters the box at box[b..b+6), like
+     *  BVH.enterBox()
+     */
+    double enter(int k, double[] box, int b)
+    {
+        double near = 0, far = Double.POSITIVE_INFINITY;
+        double t1, t2;
+
+        t1 = (box[b]   - ox[k]) * invX[k];
+        t2 = (box[b+3] - ox[k]) * invX[k];
+        if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+        if (t1 > near) near = t1;
+        if (t2 < far)  far  = t2;
+
+        t1 = (box[b+1] - oy[k]) * invY[k];
+        t2 = (box[b+4] - oy[k]) * invY[k];
+        if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+        if (t1 > near) near = t1;
+        if (t2 < far)  far  = t2;
+
+        t1 = (box[b+2] - oz[k]) * invZ[k];
+        t2 = (box[b+5] - oz[k]) * invZ[k];
+        if (t1 > t2) { double t = t1; t1 = t2; t2 = t; }
+        if (t1 > near) near = t1;
+        if (t2 < far)  far  = t2;
+
+        return near <= far ? near : Double.POSITIVE_INFINITY;
+    }
+
+    /** the first t at which any of rays [lo, hi) enters the box at
+     *  box[b..b+6) before its own closest hit, or infinity if none does
+     *  (the first and last of the rays that do are left in firstActive
+     *  and lastActive: a box inside this one can only be entered by the
+     *  rays between them)
+     */
+    double firstEnter(double[] box, int b, int lo, int hi)
+    {
+        firstActive = hi;
+        lastActive  = lo;
+        if (missesAll(box, b, farthestHit(lo, hi)))
+          return Double.POSITIVE_INFINITY;
+
+        double first = Double.POSITIVE_INFINITY;
+        for (int k = lo; k < hi; k++) {
+            double t = enter(k, box, b);
+            if (t <= closestT[k]) {
+                first = Math.min(first, t);
+                firstActive = Math.min(firstActive, k);
+                lastActive  = k + 1;
+            }
+        }
+        return first;
+    }
+}
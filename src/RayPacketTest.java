@@ -0,0 +1,134 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class RayPacketTest {
+	Random random;
+
+	@Before
+	public void setUp() {
+		random = new Random(2125);
+	}
+
+	Vector3d randomVector(double size) {
+		return new Vector3d((random.nextDouble() * 2 - 1) * size,
+				(random.nextDouble() * 2 - 1) * size,
+				(random.nextDouble() * 2 - 1) * size);
+	}
+
+	/** fill packet with rays from origin, around direction (spread
+	 *  apart by up to spread)
+	 */
+	RayPacket packet(RayPacket packet, Vector3d origin, Vector3d direction,
+			 double spread) {
+		packet.clear();
+		for (int k = 0; k < 16; k++) {
+			Ray r = packet.add(k % 4, k / 4);
+			r.origin.set(origin);
+			r.direction.set(randomVector(spread));
+			r.direction.add(direction);
+			r.direction.normalize();
+		}
+		return packet;
+	}
+
+	@Test
+	public void testMatchesSingleRays() throws Exception {
+		BVHTest shapes = new BVHTest();
+		shapes.setUp();
+		BVH bvh = new BVH(shapes.objects);
+
+		// (One packet for all the bundles, as renderPackets() does)
+		RayPacket packet = new RayPacket(16);
+		int hits = 0;
+		for (int n = 0; n < 200; n++) {
+			Vector3d origin = randomVector(15);
+			Vector3d direction = randomVector(1);
+			direction.sub(origin);
+			direction.normalize();
+
+			// Every other packet points every which way
+			packet(packet, origin, direction, n % 2 == 0 ? 0.05 : 2);
+			bvh.intersect(packet, 1e-5, null);
+
+			for (int k = 0; k < packet.count; k++) {
+				ISect expected = new ISect();
+				boolean hit = bvh.intersect(new Ray(packet.rays[k]), expected, 1e-5);
+
+				assertSame(expected.getHitObject(), packet.hits[k].getHitObject());
+				if (hit) {
+					assertEquals(expected.t, packet.closestT[k], 0);
+					assertEquals(expected.normal, packet.hits[k].normal);
+					hits++;
+				}
+			}
+		}
+
+		// Make sure the test actually exercised the tree
+		assertTrue(hits > 500);
+	}
+
+	@Test
+	public void testMissesAllIsConservative() {
+		double[] box = new double[6];
+		int culled = 0;
+		for (int n = 0; n < 2000; n++) {
+			RayPacket packet = packet(new RayPacket(16), randomVector(5),
+						  randomVector(1), 0.1);
+			packet.prepare();
+
+			Vector3d min = randomVector(5), size = randomVector(2);
+			box[0] = min.x;
+			box[1] = min.y;
+			box[2] = min.z;
+			box[3] = min.x + Math.abs(size.x);
+			box[4] = min.y + Math.abs(size.y);
+			box[5] = min.z + Math.abs(size.z);
+
+			double maxT = random.nextDouble() * 10;
+			if (packet.missesAll(box, 0, maxT)) {
+				culled++;
+				for (int k = 0; k < packet.count; k++)
+					assertTrue(packet.enter(k, box, 0) > maxT);
+			}
+		}
+		assertTrue(culled > 100);
+	}
+
+	@Test
+	public void testAxisAlignedRaysAreNotCoherent() {
+		RayPacket packet = new RayPacket(4);
+		packet.add(0, 0).direction.set(0, 0, -1);
+		packet.add(1, 0).direction.set(0.1, 0, -1);
+		packet.prepare();
+		assertFalse(packet.coherent);
+
+		double[] box = { 5, 5, 5, 6, 6, 6 };
+		assertFalse(packet.missesAll(box, 0, Double.MAX_VALUE));
+	}
+
+	@Test
+	public void testRenderIsTheSame() throws Exception {
+		Scene s = SceneTest.scene(SceneTest.mirrors);
+		s.tileSize = 7;
+		RGBImage expected = s.render(SceneTest.size, SceneTest.size, false, false, 1);
+		long rays = s.frameStats.primaryRays;
+
+		// (Packets that don't fill a tile are cut short at its edge)
+		s.packetSize = 3;
+		for (int order = 0; order < PixelOrder.names.length; order++) {
+			s.pixelOrder = order;
+			RGBImage packets = s.render(SceneTest.size, SceneTest.size, false, false, 2);
+			for (int i = 0; i < SceneTest.size; i++)
+				for (int j = 0; j < SceneTest.size; j++)
+					assertEquals(expected.getPixel(i, j), packets.getPixel(i, j));
+			assertEquals(rays, s.frameStats.primaryRays);
+		}
+	}
+}
@@ -7,7 +7,6 @@
 import java.io.*;
 import javax.vecmath.*;
 import java.text.*;
-import java.lang.reflect.*;
 import java.util.*;
 
 abstract class RaytracerObject
@@ -15,17 +14,26 @@ abstract class RaytracerObject
    /** the name of the object. Default value : an empty string */
    String name="";
 
-   /** parameters of the object */
-   Vector<ParamSpec> paramSpecs;
+   /** parameters every object has */
+   static final HashMap<String, ParamSpec> paramSpecs = paramTable(null,
+      new ParamSpec("name") {
+         void read(StreamTokenizer tokenizer, RaytracerObject target)
+              throws ParseException, IOException {
+            target.setName(Parser.readString(tokenizer));
+         }
+      });
+
+   /** constructor for objects that are made directly, not read from a
+       file (such as from a compiled scene)
+   */
+   protected RaytracerObject()
+   {
+   }
 
    /** this constructor enforces the creation of an object from a file */
    protected RaytracerObject(StreamTokenizer tokenizer)
-             throws NoSuchMethodException, SecurityException,
-                    ClassNotFoundException
    {
       // nothing to do here
-      paramSpecs = new Vector<ParamSpec>();
-      addSpec("name", "setName", "java.lang.String");
    }
    //------------------------------------------------------------------------
    // print to a stream
@@ -36,9 +44,10 @@ abstract class RaytracerObject
    }
    //------------------------------------------------------------------------
    public void read( StreamTokenizer tokenizer )
-               throws ParseException,  IOException, InvocationTargetException,
-               ClassNotFoundException, IllegalAccessException
+               throws ParseException, IOException
    {
+      HashMap<String, ParamSpec> specs = getParamSpecs();
+
       // read the open brace
       tokenizer.nextToken();
       if ( tokenizer.ttype!='{' )
@@ -48,18 +57,13 @@ abstract class RaytracerObject
       boolean Stop = false;
       while (!Stop) {
          if (tokenizer.nextToken()==StreamTokenizer.TT_WORD) {
-            String paramName = tokenizer.sval;
-            // search for the parameter in the list
-            int i;
-            for (i=0; i<paramSpecs.size(); i++)
-                if ( ((ParamSpec)paramSpecs.elementAt(i)).is(paramName))
-                   break;
+            // look up the parameter (unknown ones are skipped)
+            ParamSpec spec = specs.get(tokenizer.sval);
 
-            if (i<paramSpecs.size()) {
+            if (spec != null) {
                // skip the "="
                tokenizer.nextToken();
-               ParamSpec temp = (ParamSpec)(paramSpecs.elementAt(i));
-               temp.read(tokenizer, this);
+               spec.read(tokenizer, this);
             }
          }
          else if ( tokenizer.ttype=='}' )
@@ -68,57 +72,26 @@ abstract class RaytracerObject
       }
    }
    //------------------------------------------------------------------------
-   /** returns a reference to an accessor method
-       @param methodName the name of the method (e.g. "getName")
-
-       It is required that the accessor takes no parameters.
+   /** the parameters this kind of object can be given, by keyword
+       (subclasses with parameters of their own return their own table)
    */
-   protected Method getAccessor(String methodName, Class[] paramType)
-             throws NoSuchMethodException, SecurityException
+   HashMap<String, ParamSpec> getParamSpecs()
    {
-      try
-      {
-          return getClass().getMethod(methodName, paramType);
-      }
-      catch (NoSuchMethodException E)
-      {
-         System.err.print("Accessor " + methodName + " ");
-         for (int i=0; i<paramType.length; i++)
-             System.err.print(paramType[i].getName() + " ");
-         System.err.println(" not found in class "+getClass().getName());
-         throw E;
-      }
+      return paramSpecs;
    }
 
-   /** creates a new ParamSpec and adds it to the list of specs */
-   protected void addSpec( String kWord, String accessorName, String paramType)
-             throws NoSuchMethodException, SecurityException,
-                    ClassNotFoundException
-   {
-      Class[] c = new Class[1];
-      c[0]      = Class.forName(paramType);
-      Method m  = getAccessor(accessorName, c);
-
-      ParamSpec nameSpec = new ParamSpec(kWord, c[0], m, null);
-      paramSpecs.addElement(nameSpec);
-   }
-
-   /** creates a new ParamSpec and adds it to the list of specs */
-   protected void addSpecSpecial(String kWord, String accessorName,
-		                 String readerName)
-             throws NoSuchMethodException, SecurityException,
-                    ClassNotFoundException
+   /** makes a table of parameters: the inherited ones (if not null),
+       and specs
+   */
+   static HashMap<String, ParamSpec> paramTable(
+          HashMap<String, ParamSpec> inherited, ParamSpec... specs)
    {
-      Class[] c  = new Class[1];
-      c[0]       = Class.forName("java.util.Vector");
-      Method m   = getAccessor(accessorName, c);
-
-      Class[] ct = new Class[1];
-      ct[0]      = Class.forName("java.io.StreamTokenizer");
-      Method r   = getAccessor(readerName, ct);
-      
-      ParamSpec nameSpec = new ParamSpec(kWord, c[0], m, r);
-      paramSpecs.addElement(nameSpec);
+      HashMap<String, ParamSpec> table = new HashMap<String, ParamSpec>();
+      if (inherited != null)
+         table.putAll(inherited);
+      for (int i=0; i<specs.length; i++)
+          table.put(specs[i].getKeyword(), specs[i]);
+      return table;
    }
 
    //------------------------------------------------------------------------
@@ -0,0 +1,219 @@
+/* class RenderStats
+ * Counts of the work that went into rendering a frame: rays of each kind
+ * and at each recursion depth, shadow rays left out, intersection tests
+ * (and hits) for each type of shape, and adaptive subdivisions at each
+ * level
+ *
+ * Every rendering thread counts into a RenderStats of its own (plain
+ * fields, nothing shared), which is added into the totals for the frame
+ * whenever the thread finishes a tile.  The totals can be written out as
+ * a JSON report.
+ */
+import java.io.*;
+import java.util.*;
+
+class RenderStats
+{
+    // Names of the types of shape counted, by their position in the hit
+    // counts (types are added as the BVHs holding them are built)
+    private static final Vector<String> shapeTypes = new Vector<String>();
+
+    // Rays of each kind (primary, reflection and refraction rays are
+    // counted when they are traced, so not past the recursion depth)
+    long primaryRays    = 0;
+    long reflectionRays = 0;
+    long refractionRays = 0;
+    long shadowRays     = 0;
+
+    // Shadow rays left out, for lights facing away from the hit point or
+    // too dim to be worth shadowing
+    long lightsBehind = 0;
+    long lightsDim    = 0;
+
+    // Rays traced at each recursion depth (0 for primary rays)
+    long[] raysAtDepth = new long[0];
+
+    // Shape.hit() calls, and hits, for each type of shape
+    long[] hitCalls = new long[0];
+    long[] hits     = new long[0];
+
+    // Adaptive sampling: corner samples traced, and found in the cache,
+    // and squares split into four at each level
+    long adaptiveRaysCast  = 0;
+    long adaptiveRaysSaved = 0;
+    long[] subdivisions = new long[0];
+
+    //------------------------------------------------------------------------
+
+    /** the position of the type of shape s in the hit counts */
+    static synchronized int shapeType(Shape s)
+    {
+        String name = s.getClass().getName().toLowerCase();
+        int type = shapeTypes.indexOf(name);
+        if (type < 0) {
+            shapeTypes.addElement(name);
+            type = shapeTypes.size() - 1;
+        }
+        return type;
+    }
+
+    static synchronized String shapeTypeName(int type)
+    {
+        return shapeTypes.elementAt(type);
+    }
+
+    /** count a ray traced at a recursion depth */
+    void countRay(int depth)
+    {
+        if (depth >= raysAtDepth.length)
+          raysAtDepth = Arrays.copyOf(raysAtDepth, depth + 1);
+        raysAtDepth[depth]++;
+    }
+
+    /** the number of rays traced, of every kind */
+    long rays()
+    {
+        return primaryRays + reflectionRays + refractionRays + shadowRays;
+    }
+
+    /** count a call to hit() for a type of shape, and whether it hit */
+    void countHit(int type, boolean hit)
+    {
+        if (type >= hitCalls.length) {
+            hitCalls = Arrays.copyOf(hitCalls, type + 1);
+            hits     = Arrays.copyOf(hits, type + 1);
+        }
+        hitCalls[type]++;
+        if (hit)
+          hits[type]++;
+    }
+
+    /** add the counts of an adaptive sampler (of a tile) */
+    void addSampler(AdaptiveSampler sampler)
+    {
+        adaptiveRaysCast  += sampler.raysCast;
+        adaptiveRaysSaved += sampler.raysSaved;
+        subdivisions = add(subdivisions, sampler.subdivisions);
+    }
+
+    /** add the counts of other to these */
+    void add(RenderStats other)
+    {
+        primaryRays       += other.primaryRays;
+        reflectionRays    += other.reflectionRays;
+        refractionRays    += other.refractionRays;
+        shadowRays        += other.shadowRays;
+        lightsBehind      += other.lightsBehind;
+        lightsDim         += other.lightsDim;
+        adaptiveRaysCast  += other.adaptiveRaysCast;
+        adaptiveRaysSaved += other.adaptiveRaysSaved;
+
+        raysAtDepth  = add(raysAtDepth, other.raysAtDepth);
+        hitCalls     = add(hitCalls, other.hitCalls);
+        hits         = add(hits, other.hits);
+        subdivisions = add(subdivisions, other.subdivisions);
+    }
+
+    private static long[] add(long[] a, long[] b)
+    {
+        if (b.length > a.length)
+          a = Arrays.copyOf(a, b.length);
+        for (int i = 0; i < b.length; i++)
+          a[i] += b[i];
+        return a;
+    }
+
+    /** set all the counts back to 0 */
+    void reset()
+    {
+        primaryRays = reflectionRays = refractionRays = shadowRays = 0;
+        lightsBehind = lightsDim = 0;
+        adaptiveRaysCast = adaptiveRaysSaved = 0;
+
+        Arrays.fill(raysAtDepth, 0);
+        Arrays.fill(hitCalls, 0);
+        Arrays.fill(hits, 0);
+        Arrays.fill(subdivisions, 0);
+    }
+
+    //------------------------------------------------------------------------
+    // Report
+
+    /** write the counts to a JSON file, along with what was rendered and
+     *  how long it took
+     */
+    public void write(String fileName, String sceneName, int width,
+                      int height, int threads, boolean adaptive,
+                      long millis)
+        throws IOException
+    {
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+            new FileWriter(fileName)));
+        try {
+            out.println("{");
+            out.println("  \"scene\": " + quote(sceneName) + ",");
+            out.println("  \"width\": " + width + ",");
+            out.println("  \"height\": " + height + ",");
+            out.println("  \"threads\": " + threads + ",");
+            out.println("  \"adaptive\": " + adaptive + ",");
+            out.println("  \"renderMillis\": " + millis + ",");
+
+            out.println("  \"rays\": {");
+            out.println("    \"primary\": " + primaryRays + ",");
+            out.println("    \"reflection\": " + reflectionRays + ",");
+            out.println("    \"refraction\": " + refractionRays + ",");
+            out.println("    \"shadow\": " + shadowRays);
+            out.println("  },");
+            out.println("  \"raysPerDepth\": " + list(raysAtDepth) + ",");
+            out.println("  \"shadowRaysSkipped\": {");
+            out.println("    \"lightsBehind\": " + lightsBehind + ",");
+            out.println("    \"lightsDim\": " + lightsDim);
+            out.println("  },");
+
+            out.println("  \"shapes\": {");
+            for (int type = 0; type < hitCalls.length; type++) {
+                out.print("    " + quote(shapeTypeName(type)) +
+                          ": { \"hitCalls\": " + hitCalls[type] +
+                          ", \"hits\": " + hits[type] + " }");
+                out.println(type + 1 < hitCalls.length ? "," : "");
+            }
+            out.println("  },");
+
+            out.println("  \"adaptiveSampling\": {");
+            out.println("    \"raysCast\": " + adaptiveRaysCast + ",");
+            out.println("    \"raysSaved\": " + adaptiveRaysSaved + ",");
+            out.println("    \"subdivisionsPerLevel\": " + list(subdivisions));
+            out.println("  }");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+
+        if (out.checkError())
+          throw new IOException("Error writing " + fileName);
+    }
+
+    private static String list(long[] values)
+    {
+        StringBuilder s = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++)
+          s.append(i > 0 ? ", " : "").append(values[i]);
+        return s.append("]").toString();
+    }
+
+    /** a string as a JSON string literal */
+    private static String quote(String s)
+    {
+        StringBuilder q = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+              q.append('\\').append(c);
+            else if (c < 0x20)
+              q.append(String.format("\\u%04x", (int)c));
+            else
+              q.append(c);
+        }
+        return q.append('"').toString();
+    }
+}
@@ -5,6 +5,8 @@
  * Doug DeCarlo
  */
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.text.ParseException;
 import java.lang.reflect.*;
 import java.io.*;
@@ -21,7 +23,31 @@ class Scene
     Camera      camera     = null;
     MatrixStack MStack     = new MatrixStack();
 
+    // Acceleration structure over the objects (built by setup())
+    BVH         bvh        = null;
+
+    // Space for shading hit points, one per rendering thread (made for
+    // the BVH by setup())
+    ThreadLocal<ShadingContext> shadingContext = null;
+
     RGBImage    image      = null;
+
+    // Size of the frame being rendered (image may only hold part of it)
+    int imageWidth  = 0;
+    int imageHeight = 0;
+
+    // Progress through the frame being rendered
+    AtomicInteger tilesDone = new AtomicInteger();
+    int           tilesTotal = 0;
+
+    // Statistics of the frame being rendered (the rendering threads add
+    // theirs in as they finish tiles)
+    RenderStats   frameStats = new RenderStats();
+
+    // What the cost of each pixel is measured in (CostMap.NONE to not
+    // measure it), and the costs of the frame being rendered
+    int           costMeasure = CostMap.NONE;
+    CostMap       costMap     = null;
     // ------
     
     // Current insertion point in hierarchy for parser
@@ -36,20 +62,39 @@ class Scene
     // ------
 
     // Maximum recursion depth for a ray
-    double recursionDepth  = 3;
+    int recursionDepth     = 3;
+
+    // Secondary rays whose weight (the product of the Ks and Kt factors
+    // along their path) is below this are cut off -- or, with Russian
+    // roulette, survive with probability weight/minRayWeight and have
+    // their color scaled up to make up for the ones that don't
+    double minRayWeight    = 0.002;
+    boolean russianRoulette = false;
+
+    // Lights that add less than this to a pixel (with nothing shadowing
+    // them) are not shadowed -- no shadow ray is traced for them (0, for
+    // an exact image, shadows every light)
+    double minLightContribution = 0;
     
     // Minimum t value in intersection computations
     double epsilon         = 1e-5;
     
-    // Diagonal Color Matrix
-    // For the image point (0, 0), these are the following diagonal values:
-    // Top-left: 0, 0
-    // Top-right: 0, 1
-    // Bottom-Left: 1, 0
-    // Bottom-Right: 1, 1
-    Vector3d[][] diagonals;
-    
+    // Adaptive sampling threshold (squared distance between colors)
     double colorDifferenceSquared = 0.025;
+
+    // Number of times adaptive sampling may split a pixel into quarters
+    int maxAdaptiveLevel = 3;
+
+    // Size of the square tiles the image is split into for rendering
+    int tileSize = 16;
+
+    // Order of the tiles, and of the pixels in each (see PixelOrder)
+    int pixelOrder = PixelOrder.COLUMNS;
+
+    // Without adaptive sampling, trace the primary rays through blocks of
+    // packetSize X packetSize pixels together (see RayPacket), or one at
+    // a time if 1 or less
+    int packetSize = 0;
     
     // Constructor
     public Scene()
@@ -72,130 +117,366 @@ class Scene
         ClassNotFoundException,IllegalAccessException,
         InvocationTargetException
     {
-    	
-        // Set up camera for this image resolution
-        camera.setup(width, height);
+        return render(width, height, verbose, adaptive, 1);
+    }
 
+    /** render an image of size width X height, splitting the work into
+     *  tiles that are traced on the given number of threads
+     *  (the result is identical for any number of threads)
+     */
+    public RGBImage render(int width, int height, boolean verbose,
+                           boolean adaptive, int threads)
+        throws ParseException, IOException, NoSuchMethodException,
+        ClassNotFoundException,IllegalAccessException,
+        InvocationTargetException
+    {
         // Make a new image
         image = new RGBImage(width, height);
 
-        // Prepare the diagonal color matrix
-        diagonals = new Vector3d[width + 1][height + 1];
-        
-        // Ray trace every pixel -- the main loop
-        for (int i = 0; i < image.getWidth(); i++) {
-            if (verbose)
-              System.out.print("Rendering " +
-                               (int)(100.0*i/(image.getWidth()-1)) + "%\r");
-
-            for (int j = 0; j < image.getHeight(); j++) {
-                // Compute resulting color at pixel (x,y)
-                // Set color in image
-                image.setPixel(i,j, initialAdaptiveCastRay(i, j, 0, 0.5, adaptive));
+        Tile[] tiles = PixelOrder.split(pixelOrder, 0, 0, width, height,
+                                        tileSize);
+        ForkJoinPool pool = startFrame(width, height, tiles.length, threads);
+        try {
+            // Ray trace every tile -- the main loop
+            renderTiles(tiles, image, 0, verbose, adaptive, pool);
+        } finally {
+            if (pool != null)
+              pool.shutdown();
+        }
+
+        if (verbose)
+          finishFrame(adaptive);
+
+        return image;
+    }
+
+    /** render an image of size width X height straight to a PPM file
+     *  (rendered a band of tileSize rows at a time, top to bottom, and
+     *  only one band is held in memory -- so the image can be far larger
+     *  than what would fit in the heap)
+     */
+    public void renderToFile(int width, int height, boolean verbose,
+                             boolean adaptive, int threads, String fileName)
+        throws IOException
+    {
+        int bands = (height + tileSize - 1) / tileSize;
+        int tilesPerBand = PixelOrder.split(pixelOrder, 0, 0, width,
+                                            Math.min(tileSize, height),
+                                            tileSize).length;
+
+        PPMWriter out = new PPMWriter(fileName, width, height);
+        RGBImage band = new RGBImage(width, Math.min(tileSize, height));
+
+        ForkJoinPool pool = startFrame(width, height, bands * tilesPerBand,
+                                       threads);
+        try {
+            for (int top = height; top > 0; top -= tileSize) {
+                int j0 = Math.max(0, top - tileSize);
+
+                Tile[] tiles = PixelOrder.split(pixelOrder, 0, j0, width, top,
+                                                tileSize);
+                renderTiles(tiles, band, j0, verbose, adaptive, pool);
+
+                out.writeRows(band, j0, top - j0);
             }
+        } finally {
+            if (pool != null)
+              pool.shutdown();
+            out.close();
         }
 
-        if (verbose) {
-            System.out.println();
-            System.out.println("Done!");
+        if (verbose)
+          finishFrame(adaptive);
+    }
+
+    /** render an image of size width X height progressively (see
+     *  ProgressiveRenderer), stopping after budgetMillis milliseconds
+     *  (or not until it is done, if negative) with the best image so far
+     */
+    public RGBImage renderProgressive(int width, int height, boolean verbose,
+                                      boolean adaptive, int threads,
+                                      long budgetMillis)
+    {
+        long deadline = budgetMillis < 0 ? Long.MAX_VALUE
+                        : System.nanoTime() + budgetMillis * 1000000;
+
+        // The first pass traces every coarseStep pixels
+        int coarseStep = Integer.highestOneBit(Math.max(1, tileSize));
+
+        Tile[] tiles = PixelOrder.split(pixelOrder, 0, 0, width, height,
+                                        tileSize);
+        ForkJoinPool pool = startFrame(width, height, tiles.length, threads);
+        ProgressiveRenderer renderer =
+            new ProgressiveRenderer(this, width, height, coarseStep, deadline);
+        try {
+            renderer.render(tiles, adaptive, verbose, pool);
+        } finally {
+            if (pool != null)
+              pool.shutdown();
         }
 
+        image = renderer.toImage();
+
+        if (verbose)
+          finishFrame(adaptive);
+
         return image;
     }
 
+    /** set up the camera and progress count for a new frame, and make
+     *  the thread pool for it (null when rendering on this thread)
+     */
+    private ForkJoinPool startFrame(int width, int height, int tiles,
+                                    int threads)
+    {
+        // Set up camera for this image resolution
+        camera.setup(width, height);
+        imageWidth  = width;
+        imageHeight = height;
+
+        tilesDone.set(0);
+        tilesTotal = tiles;
+        frameStats.reset();
+        costMap = costMeasure == CostMap.NONE ? null
+                                              : new CostMap(costMeasure, width, height);
+
+        return threads <= 1 ? null : new ForkJoinPool(threads);
+    }
+
+    /** report on a frame that has been rendered */
+    private void finishFrame(boolean adaptive)
+    {
+        System.out.println();
+        System.out.println("Done!");
+
+        RenderStats stats = frameStats;
+        if (adaptive) {
+            long cast = stats.adaptiveRaysCast, saved = stats.adaptiveRaysSaved;
+            System.out.println(String.format(
+                "Adaptive sampling: %d rays cast, %d rays saved (%.1f%%)",
+                cast, saved, cast + saved > 0 ? 100.0 * saved / (cast + saved) : 0.0));
+        }
+
+        System.out.println(String.format(
+            "Rays: %d primary, %d reflection, %d refraction",
+            stats.primaryRays, stats.reflectionRays, stats.refractionRays));
+
+        long shadows = stats.shadowRays;
+        long behind = stats.lightsBehind, dim = stats.lightsDim;
+        System.out.println(String.format(
+            "Shadow rays: %d cast, %d skipped (%d lights facing away, %d too dim)",
+            shadows, behind + dim, behind, dim));
+    }
+
+    /** ray trace the given tiles into target, whose row 0 is image row
+     *  rowOffset (on the pool, if there is one)
+     */
+    private void renderTiles(Tile[] tiles, final RGBImage target,
+                             final int rowOffset, final boolean verbose,
+                             final boolean adaptive, ForkJoinPool pool)
+    {
+        if (pool == null) {
+            for (int k = 0; k < tiles.length; k++) {
+                renderTile(tiles[k], target, rowOffset, adaptive);
+                if (verbose)
+                  printProgress(tilesDone.incrementAndGet(), tilesTotal);
+            }
+            return;
+        }
+
+        Vector<Callable<Object>> tasks = new Vector<Callable<Object>>();
+        for (int k = 0; k < tiles.length; k++) {
+            final Tile tile = tiles[k];
+            tasks.addElement(new Callable<Object>() {
+                public Object call() {
+                    renderTile(tile, target, rowOffset, adaptive);
+                    if (verbose)
+                      printProgress(tilesDone.incrementAndGet(), tilesTotal);
+                    return null;
+                }
+            });
+        }
+
+        runTasks(tasks, pool);
+    }
+
+    /** run the tasks on the pool (or on this thread, if there is none),
+     *  and wait for all of them to finish
+     */
+    void runTasks(Vector<Callable<Object>> tasks, ForkJoinPool pool)
+    {
+        try {
+            if (pool == null) {
+                for (Callable<Object> task : tasks)
+                  task.call();
+                return;
+            }
+
+            for (Future<Object> f : pool.invokeAll(tasks))
+              f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Rendering interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+              throw (RuntimeException)cause;
+            if (cause instanceof Error)
+              throw (Error)cause;
+            throw new RuntimeException(cause);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** ray trace every pixel of a tile into target, whose row 0 is image
+     *  row rowOffset (may be called from any thread)
+     */
+    private void renderTile(Tile tile, RGBImage target, int rowOffset,
+                            boolean adaptive)
+    {
+        // The corner samples are only shared within the tile
+        AdaptiveSampler sampler =
+            adaptive ? new AdaptiveSampler(this, tile, maxAdaptiveLevel) : null;
+
+        RenderStats stats = shadingContext.get().stats;
+        CostMap costs = costMap;
+
+        if (packetSize > 1 && !adaptive) {
+            renderPackets(tile, target, rowOffset, stats, costs);
+            collectStats(null);
+            return;
+        }
+
+        int[] pixels = PixelOrder.pixels(pixelOrder, tile);
+        int tileWidth = tile.getWidth();
+
+        for (int k = 0; k < pixels.length; k++) {
+            int i = tile.x0 + pixels[k] % tileWidth;
+            int j = tile.y0 + pixels[k] / tileWidth;
+
+            long start = costs != null ? costs.reading(stats) : 0;
+
+            // Compute resulting color at pixel (x,y)
+            // Set color in image
+            target.setPixel(i, j - rowOffset,
+                            adaptive ? sampler.sample(i, j) : tracePixel(i, j));
+
+            // (With adaptive sampling, a corner shared with pixels
+            // already done is not counted again)
+            if (costs != null)
+              costs.record(i, j, start, stats);
+        }
+
+        collectStats(sampler);
+    }
+
+    /** ray trace every pixel of a tile into target (like renderTile), a
+     *  block of packetSize X packetSize pixels at a time: the primary
+     *  rays of a block go through the BVH together, then each is shaded
+     *  (the blocks, and the pixels in each, go in the pixel order)
+     */
+    private void renderPackets(Tile tile, RGBImage target, int rowOffset,
+                               RenderStats stats, CostMap costs)
+    {
+        ShadingContext shading = shadingContext.get();
+        if (shading.packet == null ||
+            shading.packet.getCapacity() != packetSize * packetSize)
+          shading.packet = new RayPacket(packetSize * packetSize);
+        RayPacket packet = shading.packet;
+
+        int blocksX = (tile.getWidth()  + packetSize - 1) / packetSize;
+        int blocksY = (tile.getHeight() + packetSize - 1) / packetSize;
+        int[] blocks = PixelOrder.cells(pixelOrder, blocksX, blocksY);
+        int[] pixels = PixelOrder.cells(pixelOrder, packetSize, packetSize);
+
+        for (int b = 0; b < blocks.length; b++) {
+            int i0 = tile.x0 + blocks[b] % blocksX * packetSize;
+            int j0 = tile.y0 + blocks[b] / blocksX * packetSize;
+
+            long start = costs != null ? costs.reading(stats) : 0;
+
+            // (The blocks at the edges of the tile are cut short)
+            packet.clear();
+            for (int p = 0; p < pixels.length; p++) {
+                int i = i0 + pixels[p] % packetSize;
+                int j = j0 + pixels[p] / packetSize;
+                if (i < tile.x1 && j < tile.y1)
+                  calculatePixelRay(i, j, packet.add(i, j));
+            }
+
+            bvh.intersect(packet, epsilon, stats);
+
+            // Each pixel is charged an equal share of the intersection
+            // tests (which all of them went through together)
+            long share = costs != null ?
+                (costs.reading(stats) - start) / packet.count : 0;
+
+            for (int k = 0; k < packet.count; k++) {
+                int i = packet.pixelI[k], j = packet.pixelJ[k];
+                long pixelStart = costs != null ?
+                    costs.reading(stats) - share : 0;
+
+                // (What castRay() does with a primary ray)
+                stats.countRay(0);
+                stats.primaryRays++;
+
+                ISect isect = packet.hits[k];
+                Vector3d color = new Vector3d();
+                if (hitToWorld(isect))
+                  color = shade(packet.rays[k], isect, 0, 1, shading);
+                target.setPixel(i, j - rowOffset, color);
+
+                if (costs != null)
+                  costs.record(i, j, pixelStart, stats);
+            }
+        }
+    }
+
+    /** add the statistics this thread has counted (and those of sampler,
+     *  if not null) into the frame's
+     */
+    void collectStats(AdaptiveSampler sampler)
+    {
+        RenderStats stats = shadingContext.get().stats;
+        if (sampler != null)
+          stats.addSampler(sampler);
+        synchronized (frameStats) {
+            frameStats.add(stats);
+        }
+        stats.reset();
+    }
+
+    private synchronized void printProgress(int done, int total)
+    {
+        System.out.print("Rendering " + (int)(100.0*done/total) + "%\r");
+    }
+
     private Ray calculatePixelRay(double i, double j) {
+        return calculatePixelRay(i, j, new Ray());
+    }
+
+    private Ray calculatePixelRay(double i, double j, Ray ray) {
         // Compute ray at pixel (x,y)
         return camera.pixelRay(
-        		((double)i)/(image.getWidth()  - 1) * 2 - 1, 
-        		((double)j)/(image.getHeight() - 1) * 2 - 1);
+        		((double)i)/(imageWidth  - 1) * 2 - 1, 
+        		((double)j)/(imageHeight - 1) * 2 - 1, ray);
     }
     
-    /*
-     * Adaptively casts ray for depth = 0.
+    /** compute the color seen through the image point (i,j), in pixels
+     *  (may be called from any thread)
      */
-    private Vector3d initialAdaptiveCastRay(double i, double j, int depth, double delta, boolean adaptive) {
-    	if (!adaptive) {
-	    	// Compute (x,y) coordinates of pixel in [-1, 1]
-	    	Ray r = calculatePixelRay(i, j);
-	    	// Compute resulting color at pixel (x,y)
-	        return castRay(r, 0, adaptive);
-    	} else {
-    		Vector3d topLeft, topRight, bottomLeft, bottomRight;
-    		
-    		// Used for depth == 0 to save diagonal calculation
-    		int p = 0, q = 0;
-    		if (depth == 0) {
-    			p = (int)i;
-    			q = (int)j;
-    		}
-    		
-    		// Top Left
-    		if (depth > 0)
-    			topLeft = castRay(calculatePixelRay(i - delta, j - delta), depth, adaptive);
-    		else if (diagonals[p][q] == null) {
-    			diagonals[p][q] = topLeft = castRay(calculatePixelRay(i - delta, j - delta), depth, adaptive);
-    		} else {
-    			topLeft = diagonals[p][q];
-    		}
-    		
-    		// Top Right
-    		if (depth > 0)
-    			topRight = castRay(calculatePixelRay(i - delta, j + delta), depth, adaptive);
-    		else if (diagonals[p][q+1] == null) {
-    			diagonals[p][q+1] = topRight = castRay(calculatePixelRay(i - delta, j + delta), depth, adaptive);
-    		} else {
-    			topRight = diagonals[p][q+1];
-    		}
-    		
-    		// Top Left
-    		if (depth > 0)
-    			bottomLeft = castRay(calculatePixelRay(i + delta, j - delta), depth, adaptive);
-    		else if (diagonals[p+1][q] == null) {
-    			diagonals[p+1][q] = bottomLeft = castRay(calculatePixelRay(i + delta, j - delta), depth, adaptive);
-    		} else {
-    			bottomLeft = diagonals[p+1][q];
-    		}
-    		
-    		// Top Left
-    		if (depth > 0)
-    			bottomRight = castRay(calculatePixelRay(i + delta, j + delta), depth, adaptive);
-    		else if (diagonals[p+1][q+1] == null) {
-    			diagonals[p+1][q+1] = bottomRight = castRay(calculatePixelRay(i + delta, j + delta), depth, adaptive);
-    		} else {
-    			bottomRight = diagonals[p+1][q+1];
-    		}
-    		
-    		Vector3d[] colors = {
-    			topLeft,
-    			topRight,
-    			bottomLeft,
-    			bottomRight
-    		};
-    		
-    		if (!areColorsSimilar(colors)) {
-//    			return new Vector3d();
-    			depth += 1;
-    			delta *= 0.5;
-    			double nextDelta = delta * 0.5;
-    			topLeft = initialAdaptiveCastRay(i - delta, j - delta, depth, nextDelta, adaptive);
-    			topRight = initialAdaptiveCastRay(i - delta, j + delta, depth, nextDelta, adaptive);
-    			bottomLeft = initialAdaptiveCastRay(i + delta, j - delta, depth, nextDelta, adaptive);
-    			bottomRight = initialAdaptiveCastRay(i + delta, j + delta, depth, nextDelta, adaptive);
-    		}
-    			
-    		
-    		Vector3d color = new Vector3d(topLeft);
-    		color.add(topRight);
-    		color.add(bottomLeft);
-    		color.add(bottomRight);
-    		color.scale(0.25);
-    		
-    		return color;
-        }
+    Vector3d tracePixel(double i, double j)
+    {
+        return castRay(calculatePixelRay(i, j), 0, 1);
     }
-    
-    
-    private boolean areColorsSimilar(Vector3d[] colors) {
+
+    /** are all the colors within the adaptive sampling threshold of
+     *  each other?
+     */
+    boolean areColorsSimilar(Vector3d... colors) {
     	Vector3d baseColor = new Vector3d();
     	for (int i = 0; i < colors.length; ++i) {
     		for (int j = 0; j < colors.length; ++j) { 
@@ -211,189 +492,183 @@ class Scene
     }
     
     /** compute pixel color for ray tracing computation for ray r
-     *  (at a recursion depth)
+     *  (at a recursion depth, where the color of r is scaled by (at most)
+     *  weight before it reaches the pixel)
+     *
+     *  r is not modified, so castRay() can be called from several
+     *  threads at once
      */
-    private Vector3d castRay(Ray r, int depth, boolean adaptive)
+    private Vector3d castRay(Ray r, int depth, double weight)
     {
-        Vector3d color = new Vector3d();
         ISect isect = new ISect();
 
-        Point3d rayOrigin = new Point3d(r.origin);
-        Vector3d rayDirection = new Vector3d(r.direction);
-        
-        // Check if the ray hit any object (or recursion depth was exceeded)
-        if (depth <= recursionDepth && intersects(r, isect)) {
-            // -- Ray hit object as specified in isect
-
-            Material mat = isect.getHitObject().getMaterialRef();
-
-            // -- Compute contribution to this pixel for each light by doing
-            //    the lighting computation there (sending out a shadow feeler
-            //    ray to see if light is visible from intersection point)
-
-            // ...
-            for (int i = 0; i < lights.size(); ++i) {
-            	Vector3d tint = shadowRay(isect, lights.get(i));
-            	
-            	// Restore hit object before computing color
-            	Vector3d lightColor = lights.get(i).compute(isect, tint, r);
-            	color.add(lightColor);
-            }
-            
-            // ==== Reflection Component ====
-            // Don't bother reflecting if the object is non reflective
-            if (mat.getKs().x != 0 ||
-        		mat.getKs().y != 0 ||
-        		mat.getKs().z != 0) {
-	            // Transform ray to correct direction
-	            Tools.reflect(r.direction, rayDirection, isect.getNormal());
-	            r.origin.set(isect.getHitPoint());
-	            r.direction.negate();
-	            
-	            Vector3d colorReflect = castRay(r, depth + 1, adaptive);
-	            Tools.termwiseMul3d(colorReflect, mat.getKs());
-	            color.add(colorReflect);
-            }
-            
-            // ==== RefractionComponent ====
-            // Don't bother refracting if the object is opaque
-            if (mat.getKt().x != 0 ||
-        		mat.getKt().y != 0 ||
-        		mat.getKt().z != 0) {
-            	r.origin.set(isect.getHitPoint());
-	            r.direction.set(rayDirection);
-	            
-	            // Are we entering? The dot product will be negative
-	            if (isect.getNormal().dot(rayDirection) < 0) {
-	            	Tools.refract(r.direction, rayDirection, isect.getNormal(), 1, mat.index);
-	            	
-	            } else {
-	            	isect.getNormal().negate();
-	            	Tools.refract(r.direction, rayDirection, isect.getNormal(), mat.index, 1);
-	            	isect.getNormal().negate();
-	            }
-	            Vector3d colorRefract = castRay(r, depth + 1, adaptive);
-	            Tools.termwiseMul3d(colorRefract, mat.getKt());
-	            color.add(colorRefract);
-            }
-        }
+        ShadingContext shading = shadingContext.get();
+        shading.stats.countRay(depth);
+        if (depth == 0)
+          shading.stats.primaryRays++;
 
-        return color;
+        // Check if the ray hit any object
+        if (!intersects(r, isect, shading.stats))
+          return new Vector3d();
+
+        return shade(r, isect, depth, weight, shading);
     }
 
-    /** determine the closest intersecting object along ray r (if any) 
-     *  and its intersection point
+    /** compute the color seen along ray r, which hit an object as
+     *  specified in isect (in world space), at a recursion depth
      */
-    private boolean intersects(Ray r, ISect intersection)
+    private Vector3d shade(Ray r, ISect isect, int depth, double weight,
+                           ShadingContext shading)
     {
-    	ISect closestIntersection = new ISect();
-    	closestIntersection.t = Double.MAX_VALUE;
-    	
-        // For each object
-        Enumeration e = objects.elements();
-        while (e.hasMoreElements()) {
-        	
-            Shape current = (Shape)e.nextElement();
-            	
-            // Transform ray to object space
-            Ray copy = new Ray(r);
-            current.MInverse.transform(copy.origin);
-            current.MInverse.transform(copy.direction);
-            
-            // Find closest intersection point
-        	if (current.hit(copy, intersection, true, epsilon) && intersection.t < closestIntersection.t) {
-        		closestIntersection.set(intersection);
-        	}
+        Vector3d color = new Vector3d();
+        Material mat = isect.getHitObject().getMaterialRef();
+
+        // How wide the ray has spread by the time it got here (as seen
+        // in the texture), from the distance it travelled
+        double pathLength = r.pathLength + isect.t * r.direction.length();
+        isect.footprint = isect.getHitObject().textureFootprint(
+            camera.getPixelSpread() * pathLength);
+
+        // -- Compute contribution to this pixel for each light by doing
+        //    the lighting computation there (sending out a shadow feeler
+        //    ray to see if light is visible from intersection point)
+        //    The material and the view are only looked at once, and
+        //    the ambient color is added once, whatever the number of
+        //    lights (the context is free to reuse for the secondary
+        //    rays, which are only traced once shading is done)
+        shading.set(isect, r, mat, weight, minLightContribution);
+        shading.addAmbient(color);
+        for (int i = 0; i < lights.size(); ++i)
+          shading.addLight(lights.elementAt(i), color);
+        
+        // ==== Reflection Component ====
+        // Don't bother reflecting if the object is non reflective
+        // (or the reflection hardly contributes to the pixel, or the
+        // ray tree is as deep as it may go)
+        double reflectWeight = weight * Tools.maxComponent(mat.getKs());
+        double reflectScale = continuation(reflectWeight, r, 0);
+        if (reflectScale > 0 && depth < recursionDepth) {
+            shading.stats.reflectionRays++;
+
+            // Reflected ray leaves from the hit point
+            Ray reflected = new Ray();
+            Tools.reflect(reflected.direction, r.direction, isect.getNormal());
+            reflected.origin.set(isect.getHitPoint());
+            reflected.direction.negate();
+            reflected.pathLength = pathLength;
+
+            Vector3d colorReflect = castRay(reflected, depth + 1,
+                                            reflectWeight * reflectScale);
+            Tools.termwiseMul3d(colorReflect, mat.getKs());
+            colorReflect.scale(reflectScale);
+            color.add(colorReflect);
         }
-        // Make sure we point to the closest intersection point
-        intersection.set(closestIntersection);
         
-        if (intersection.getHitObject() != null) {
-            // Transform intersection into world space
-
-            // Transform the intersection point
-        	intersection.hitObject.M.transform(intersection.hitPoint);
-        	
-        	// Transform the normal (Make sure its normalized!)
-        	intersection.hitObject.MTInverse.transform(intersection.normal);
-        	intersection.normal.normalize();
-        	
-        	return true;
+        // ==== RefractionComponent ====
+        // Don't bother refracting if the object is opaque
+        // (or the refraction hardly contributes to the pixel, or the
+        // ray tree is as deep as it may go)
+        double refractWeight = weight * Tools.maxComponent(mat.getKt());
+        double refractScale = continuation(refractWeight, r, 1);
+        if (refractScale > 0 && depth < recursionDepth) {
+            shading.stats.refractionRays++;
+
+            // Refracted ray leaves from the hit point (and continues
+            // straight on if there is total internal reflection)
+            Ray refracted = new Ray(isect.getHitPoint(), r.direction);
+            refracted.pathLength = pathLength;
+
+            // Are we entering? The dot product will be negative
+            if (isect.getNormal().dot(r.direction) < 0) {
+                Tools.refract(refracted.direction, r.direction, isect.getNormal(), 1, mat.index);
+
+            } else {
+                isect.getNormal().negate();
+                Tools.refract(refracted.direction, r.direction, isect.getNormal(), mat.index, 1);
+                isect.getNormal().negate();
+            }
+            Vector3d colorRefract = castRay(refracted, depth + 1,
+                                            refractWeight * refractScale);
+            Tools.termwiseMul3d(colorRefract, mat.getKt());
+            colorRefract.scale(refractScale);
+            color.add(colorRefract);
         }
 
-        return false;
+        return color;
     }
 
-    /** compute the amount of unblocked color that is let through to
-     *  a given intersection, for a particular light
+    /** decide whether to trace a secondary ray of a given weight, spawned
+     *  by ray r: returns 0 to cut it off, or the factor to scale its
+     *  color by (1, or more for a survivor of Russian roulette)
      *
-     *  If the light is entirely blocked, return (0,0,0), not blocked at all
-     *  return (1,1,1), and partially blocked return the product of Kt's
-     *  (from transparent objects)
+     *  The roulette draw is a hash of the parent ray, so the image does
+     *  not depend on the number of threads or the order of the tiles
      */
-    Vector3d shadowRay(ISect intersection, Light light)
+    private double continuation(double weight, Ray r, int branch)
+    {
+        if (weight <= 0)
+          return 0;
+        if (weight >= minRayWeight)
+          return 1;
+        if (!russianRoulette)
+          return 0;
+
+        double survival = weight / minRayWeight;
+        return rayHash(r, branch) < survival ? 1 / survival : 0;
+    }
+
+    /** a number in [0,1) that is a deterministic function of a ray */
+    private static double rayHash(Ray r, int branch)
+    {
+        long h = 0x9E3779B97F4A7C15L * (branch + 1);
+        h = mixHash(h ^ Double.doubleToLongBits(r.origin.x));
+        h = mixHash(h ^ Double.doubleToLongBits(r.origin.y));
+        h = mixHash(h ^ Double.doubleToLongBits(r.origin.z));
+        h = mixHash(h ^ Double.doubleToLongBits(r.direction.x));
+        h = mixHash(h ^ Double.doubleToLongBits(r.direction.y));
+        h = mixHash(h ^ Double.doubleToLongBits(r.direction.z));
+
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    /** finalizer of the SplitMix64 generator */
+    private static long mixHash(long h)
     {
-        // ...
-
-        // Compute shadow ray and call shadowTint() or shadowTintDirectional()
-
-    	Vector3d lightDirection = new Vector3d();
-    	
-    	// This is not a directional light
-		if (light.getDirection() == null) {
-			// Construct a vector going from Hit Point -> Light
-			lightDirection = new Vector3d(light.getPosition());
-			lightDirection.sub(intersection.getHitPoint());
-			lightDirection.normalize();
-		} else {
-			// Why don't we need to negate this value?  Isn't this pointing from Light -> Point?
-			lightDirection = new Vector3d(light.getDirection());
-		}
-    	Ray shadow = new Ray(intersection.getHitPoint(), lightDirection);
-
-    	return shadowTint(shadow, intersection.t);
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
     }
 
-    /** determine how the light is tinted along a particular ray which
-     *  has no maximum distance (i.e. from a directional light)
+    /** determine the closest intersecting object along ray r (if any) 
+     *  and its intersection point (counting the tests in stats)
      */
-    private Vector3d shadowTintDirectional(Ray r)
+    private boolean intersects(Ray r, ISect intersection, RenderStats stats)
     {
-        return shadowTint(r, Double.MAX_VALUE);
+        // Find the closest object using the bounding volume hierarchy
+        bvh.intersect(r, intersection, epsilon, stats);
+
+        return hitToWorld(intersection);
     }
 
-    /** determine how the light is tinted along a particular ray, not
-     *  considering intersections further than maxT
+    /** transform an intersection found by the BVH into world space
+     *  (returns whether there is one)
      */
-    private Vector3d shadowTint(Ray r, double maxT)
+    private boolean hitToWorld(ISect intersection)
     {
-        Vector3d tint = new Vector3d(1.0, 1.0, 1.0);
+        if (intersection.getHitObject() != null) {
+            // Transform intersection into world space
 
-        // ...
-        
-        // For each object
-        Enumeration e = objects.elements();
-        ISect intersection = new ISect();
-        while (e.hasMoreElements()) {
-            Shape current = (Shape)e.nextElement();
-
-            // ...
-
-            // ... find product of Kt values that intersect this ray
-            
-            // Transform ray to object space
-            Ray copy = new Ray(r);
-            current.MInverse.transform(copy.origin);
-            current.MInverse.transform(copy.direction);
-            copy.direction.normalize();
-            
-            if (current.hit(copy, intersection, false, epsilon)) {
-            	Vector3d kt = new Vector3d(intersection.hitObject.getMaterialRef().getKt());
-            	Tools.termwiseMul3d(tint, kt);
-            }
+            // Transform the intersection point
+        	intersection.hitObject.pointToWorld(intersection.hitPoint);
+        	
+        	// Transform the normal (Make sure its normalized!)
+        	intersection.hitObject.normalToWorld(intersection.normal);
+        	intersection.normal.normalize();
+        	
+        	return true;
         }
 
-        return tint;
+        return false;
     }
 
     //------------------------------------------------------------------------
@@ -455,10 +730,32 @@ class Scene
           camera = new Camera();
 
         // Set up materials
+        boolean textured = false;
         for (int i = 0; i < materials.size(); i++){
             Material mat = (Material)materials.elementAt(i);
             mat.setup(Trace.verbose);
+            textured |= mat.textureMip != null;
         }
+
+        if (Trace.verbose && textured)
+          System.out.println(TextureCache.summary());
+
+        // Build the bounding volume hierarchy over the objects
+        bvh = new BVH(objects);
+        shadingContext = new ThreadLocal<ShadingContext>() {
+            protected ShadingContext initialValue() {
+                return new ShadingContext(bvh, epsilon);
+            }
+        };
+    }
+
+    /** let go of the resources held by the scene (textures) once it is
+     *  no longer going to be rendered
+     */
+    public void release()
+    {
+        for (int i = 0; i < materials.size(); i++)
+          materials.elementAt(i).release();
     }
 
     //-------------------------------------------------------------------------
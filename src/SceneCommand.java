@@ -14,10 +14,6 @@ import java.util.*;
  */
 class SceneCommand
 {
-    String[] names = { "push", "pop", "identity",
-		       "translate", "rotate", "scale",
-		       "up", "down" };
-
     /** constructor. All kinds of operations will be treated as regular
         parameters, setting some flags about the data.
     */
@@ -29,33 +25,33 @@ class SceneCommand
 	if (tokenizer.ttype!=StreamTokenizer.TT_WORD)
 	    throw new ParseException("Name expected instead of " + tokenizer,
 				     tokenizer.lineno());
-	Class[] paramList = {tokenizer.getClass(), s.getClass()};
-	Object[] params = {tokenizer, s };
-	
-	int i;
-	for (i=0; i<names.length; i++) {
-	    if (names[i].compareTo(tokenizer.sval)==0) {
-		// check for '{'
-		tokenizer.nextToken();
-		if ( tokenizer.ttype!='{' )
-		    throw new ParseException("No \"{\" found",
-					     tokenizer.lineno());
-		
-		// call the appropriate method
-		Method m = getClass().getMethod(names[i],paramList);
-		m.invoke(this,params);
-		
-		// check for '}'
-		tokenizer.nextToken();
-		if ( tokenizer.ttype!='}' )
-		    throw new ParseException("No \"}\" found",
-					     tokenizer.lineno());
-		break;
-	    }
+	String name = tokenizer.sval;
+
+	// check for '{'
+	tokenizer.nextToken();
+	if ( tokenizer.ttype!='{' )
+	    throw new ParseException("No \"{\" found",
+				     tokenizer.lineno());
+
+	// call the appropriate method
+	switch (name) {
+	case "push":      push(tokenizer, s);      break;
+	case "pop":       pop(tokenizer, s);       break;
+	case "identity":  identity(tokenizer, s);  break;
+	case "translate": translate(tokenizer, s); break;
+	case "rotate":    rotate(tokenizer, s);    break;
+	case "scale":     scale(tokenizer, s);     break;
+	case "up":        up(tokenizer, s);        break;
+	case "down":      down(tokenizer, s);      break;
+	default:
+	    throw new ParseException("Unknows token "+name,
+				     tokenizer.lineno());
 	}
 
-	if (i>=names.length)
-	    throw new ParseException("Unknows token "+tokenizer,
+	// check for '}'
+	tokenizer.nextToken();
+	if ( tokenizer.ttype!='}' )
+	    throw new ParseException("No \"}\" found",
 				     tokenizer.lineno());
     }
 
@@ -0,0 +1,174 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+
+public class SceneTest {
+	static final int size = 16;
+
+	// A glass sphere in front of a mirror, lit from the camera
+	static final String mirrors =
+		"light { position = (0, 0, 5) }\n" +
+		"material { name = glass kd = (0.1 0.1 0.1) ks = (0.3 0.3 0.3) kt = (0.6 0.6 0.6) index = 1.5 }\n" +
+		"material { name = mirror kd = (0.2 0.2 0.2) ks = (0.8 0.8 0.8) }\n" +
+		"push {}\ntranslate { (0, 0, -4) }\nsphere { material = glass }\npop {}\n" +
+		"translate { (0, 0, -8) }\nscale { (10, 10, 1) }\nbox { material = mirror }\n";
+
+	/** a size X size frame of the given scene description */
+	static Scene scene(String description) throws Exception {
+		File file = File.createTempFile("scene", ".txt");
+		try {
+			FileWriter out = new FileWriter(file);
+			out.write(description);
+			out.close();
+
+			Scene s = new Scene();
+			new Parser(s).readFile(file.getPath());
+			s.setup();
+			s.camera.setup(size, size);
+			s.imageWidth = size;
+			s.imageHeight = size;
+			return s;
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testCutoffHardlyChangesColor() throws Exception {
+		Scene s = scene(mirrors);
+		s.recursionDepth = 12;
+
+		for (int i = 0; i < size; i += 3)
+			for (int j = 0; j < size; j += 3) {
+				s.minRayWeight = 0;
+				Vector3d full = s.tracePixel(i, j);
+				s.minRayWeight = 0.002;
+				Vector3d cut = s.tracePixel(i, j);
+
+				// A pruned ray contributes less than its weight (for light
+				// up to 1), times the number of rays it could have spawned
+				assertTrue(full + " vs " + cut, full.epsilonEquals(cut, 0.01));
+			}
+	}
+
+	@Test
+	public void testRouletteIsDeterministic() throws Exception {
+		Scene s = scene(mirrors);
+		s.recursionDepth = 12;
+		s.minRayWeight = 0.05;
+		s.russianRoulette = true;
+
+		for (int i = 0; i < size; i += 3)
+			for (int j = 0; j < size; j += 3)
+				assertEquals(s.tracePixel(i, j), s.tracePixel(i, j));
+	}
+
+	@Test
+	public void testAmbientIsAddedOnce() throws Exception {
+		// A wall with only an ambient color, under one light and three
+		String light = "light { position = (0, 0, 5) }\n";
+		String wall =
+			"material { name = flat ka = (0.3 0.2 0.1) kd = (0 0 0) }\n" +
+			"translate { (0, 0, -5) }\nscale { (10, 10, 1) }\nbox { material = flat }\n";
+
+		Vector3d one = scene(light + wall).tracePixel(size / 2, size / 2);
+		Vector3d three = scene(light + light + light + wall).tracePixel(size / 2, size / 2);
+
+		assertTrue(one.toString(), one.epsilonEquals(new Vector3d(0.3, 0.2, 0.1), 1e-9));
+		assertTrue(three.toString(), three.epsilonEquals(one, 1e-9));
+	}
+
+	@Test
+	public void testDimLightsAreSkipped() throws Exception {
+		// A grid of attenuated lights over a wall (with a ball casting
+		// shadows on it), most of them far from any given point on it
+		StringBuilder description = new StringBuilder();
+		for (int x = -4; x <= 4; x++)
+			for (int y = -4; y <= 4; y++)
+				description.append("light { position = (" + 4 * x + ", " + 4 * y +
+					", -3) attenuation = (1 0 2) }\n");
+		description.append(
+			"material { name = wall kd = (0.8 0.8 0.8) ks = (0.2 0.2 0.2) }\n" +
+			"push {}\ntranslate { (0, 0, -3.5) }\nscale { (0.3, 0.3, 0.3) }\nsphere { material = wall }\npop {}\n" +
+			"translate { (0, 0, -5) }\nscale { (20, 20, 1) }\nbox { material = wall }\n");
+		Scene s = scene(description.toString());
+
+		s.minLightContribution = 0;
+		RGBImage all = s.render(size, size, false, false, 1);
+		assertEquals(0, s.frameStats.lightsDim);
+		long shadowRays = s.frameStats.shadowRays;
+
+		s.minLightContribution = 0.002;
+		RGBImage culled = s.render(size, size, false, false, 1);
+		assertTrue(s.frameStats.lightsDim > 0);
+		assertTrue(s.frameStats.shadowRays < shadowRays);
+		assertEquals(shadowRays, s.frameStats.shadowRays + s.frameStats.lightsDim);
+
+		// A shadow from each light taken to be unshadowed could only have
+		// taken away the cutoff
+		for (int i = 0; i < size; i++)
+			for (int j = 0; j < size; j++) {
+				Vector3d a = all.getPixel(i, j), c = culled.getPixel(i, j);
+				assertTrue(a + " vs " + c, a.epsilonEquals(c, 81 * 0.002));
+			}
+	}
+
+	@Test
+	public void testRayCounts() throws Exception {
+		Scene s = scene(mirrors);
+		s.minRayWeight = 0;
+		s.render(size, size, false, false, 1);
+		RenderStats stats = s.frameStats;
+
+		// One primary ray per pixel, and the secondary rays stop at the
+		// recursion depth
+		assertEquals(size * size, stats.primaryRays);
+		assertEquals(stats.primaryRays, stats.raysAtDepth[0]);
+		assertTrue(stats.raysAtDepth.length <= s.recursionDepth + 1);
+		long secondary = 0;
+		for (int depth = 1; depth < stats.raysAtDepth.length; depth++)
+			secondary += stats.raysAtDepth[depth];
+		assertTrue(secondary > 0);
+		assertEquals(stats.reflectionRays + stats.refractionRays, secondary);
+		assertTrue(stats.shadowRays > 0);
+
+		// Both shapes are tested (and hit)
+		for (Shape shape : new Shape[] { new Sphere(), new Box() }) {
+			int type = RenderStats.shapeType(shape);
+			assertTrue(stats.hits[type] > 0);
+			assertTrue(stats.hitCalls[type] >= stats.hits[type]);
+		}
+
+		// The counts are the same on several threads, and for the next frame
+		long[] hitCalls = stats.hitCalls.clone();
+		s.render(size, size, false, false, 3);
+		assertEquals(size * size, s.frameStats.primaryRays);
+		assertEquals(secondary + size * size, sum(s.frameStats.raysAtDepth));
+		assertTrue(Arrays.equals(hitCalls, s.frameStats.hitCalls));
+
+		File file = File.createTempFile("stats", ".json");
+		try {
+			s.frameStats.write(file.getPath(), "mirrors", size, size, 3, false, 0);
+			String json = new String(Files.readAllBytes(file.toPath()));
+			assertTrue(json, json.contains("\"primary\": " + size * size + ","));
+			assertTrue(json, json.contains("\"sphere\": { \"hitCalls\": "));
+		} finally {
+			file.delete();
+		}
+	}
+
+	static long sum(long[] values) {
+		long total = 0;
+		for (long v : values)
+			total += v;
+		return total;
+	}
+}
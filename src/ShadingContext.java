@@ -0,0 +1,204 @@
+/* class ShadingContext
+ * What the lighting computation needs to know about an intersection
+ * point -- the material colors (with the texture applied), the normal
+ * and the incoming ray -- worked out once, for all the lights
+ *
+ * The lights are then added in one at a time by addLight(), which does
+ * not allocate: the shadow feeler ray, the tint it collects and the
+ * space for tracing it are kept here and reused for every light.
+ * Lights that face away from the point are skipped, and lights too dim
+ * for a shadow to make a difference to the pixel are added in without
+ * tracing a shadow ray.
+ */
+import javax.vecmath.*;
+
+class ShadingContext
+{
+    // Objects that can shadow the lights, and how far along a shadow
+    // ray they have to be to count
+    final BVH    bvh;
+    final double epsilon;
+
+    // Hit point and unit surface normal
+    double px, py, pz;
+    double nx, ny, nz;
+
+    // Direction of the ray that led to the hit point
+    double dx, dy, dz;
+
+    // Material colors (the diffuse color has the texture applied)
+    double kaR, kaG, kaB;
+    double kdR, kdG, kdB;
+    double ksR, ksG, ksB;
+    double shininess;
+
+    // Whether there is any diffuse color (otherwise shadows do not
+    // matter)
+    boolean diffuse;
+
+    // Largest diffuse component, scaled by how much the point's color
+    // counts in the pixel
+    double diffuseWeight;
+
+    // Lights contributing less than this to the pixel are not shadowed
+    double minContribution;
+
+    // Statistics of the thread using this context (since they were last
+    // collected)
+    final RenderStats stats = new RenderStats();
+
+    // Shadow feeler ray, the tint it collects, and scratch space for
+    // tracing it
+    final Ray      shadow = new Ray();
+    final Vector3d tint   = new Vector3d();
+    final int[]    stack;
+    final ISect    blocker = new ISect();
+    final Ray      local   = new Ray();
+
+    // Texture color
+    final Vector3d texColor = new Vector3d();
+
+    // Bundle of primary rays, for rendering with packets (made when it
+    // is first needed, and reused for every block of the thread's tiles)
+    RayPacket packet = null;
+
+    //------------------------------------------------------------------------
+
+    public ShadingContext(BVH bvh, double epsilon)
+    {
+        this.bvh     = bvh;
+        this.epsilon = epsilon;
+        stack = new int[bvh.getStackSize()];
+    }
+
+    /** set up for shading the intersection point of ray r (in world
+     *  space) with an object of the given material, where the color of
+     *  the point is scaled by (at most) weight before it reaches the
+     *  pixel, and lights that add less than minContribution to the
+     *  pixel are not shadowed
+     */
+    public void set(ISect isect, Ray r, Material mat, double weight,
+                    double minContribution)
+    {
+        px = isect.hitPoint.x; py = isect.hitPoint.y; pz = isect.hitPoint.z;
+        nx = isect.normal.x;   ny = isect.normal.y;   nz = isect.normal.z;
+        dx = r.direction.x;    dy = r.direction.y;    dz = r.direction.z;
+
+        Vector3d ka = mat.getKa(), kd = mat.getKd(), ks = mat.getKs();
+        kaR = ka.x; kaG = ka.y; kaB = ka.z;
+        kdR = kd.x; kdG = kd.y; kdB = kd.z;
+        ksR = ks.x; ksG = ks.y; ksB = ks.z;
+        shininess = mat.getShiny();
+
+        // Account for texture (filtered over the area the ray covers)
+        if (mat.getTextureColor(isect.u, isect.v, isect.footprint,
+                                texColor)) {
+            kdR *= texColor.x;
+            kdG *= texColor.y;
+            kdB *= texColor.z;
+        }
+
+        diffuse = kdR != 0 || kdG != 0 || kdB != 0;
+
+        diffuseWeight = weight * Math.max(kdR, Math.max(kdG, kdB));
+        this.minContribution = minContribution;
+    }
+
+    /** add the ambient color to color (once for the point, however many
+     *  lights there are -- it is not affected by shadows)
+     */
+    public void addAmbient(Vector3d color)
+    {
+        color.x += kaR;
+        color.y += kaG;
+        color.z += kaB;
+    }
+
+    /** add the color that a light contributes at the point to color
+     *
+     * The computation does the following:
+     *  - computes diffuse and specular (Phong model) illumination
+     *  - handles both directional and (attenuated) point light sources
+     *    (which are affected by shadows)
+     *
+     * The diffuse light is tinted by the objects between the point and
+     * the light: an exposed light has a tint of (1,1,1) and an occluded
+     * light has a tint of (0,0,0) -- intermediate values can result from
+     * intervening transparent objects.  No shadow ray is sent when the
+     * light is behind the surface, or the material has no diffuse color.
+     *
+     * When the unshadowed diffuse contribution of the light to the
+     * pixel is below minContribution, no shadow ray is traced, and the
+     * light is taken to be exposed -- a shadow (which only tints the
+     * diffuse light) could only have made a difference of that much.
+     */
+    public void addLight(Light light, Vector3d color)
+    {
+        // Unit vector towards the light, and how far away it is
+        double lx, ly, lz, distance;
+        if (light.direction == null) {
+            lx = light.position.x - px;
+            ly = light.position.y - py;
+            lz = light.position.z - pz;
+            distance = Math.sqrt(lx*lx + ly*ly + lz*lz);
+            lx /= distance; ly /= distance; lz /= distance;
+        } else {
+            lx = light.direction.x;
+            ly = light.direction.y;
+            lz = light.direction.z;
+            distance = Double.MAX_VALUE;
+        }
+
+        // The light is behind the surface
+        double dotval = nx*lx + ny*ly + nz*lz;
+        if (dotval < 0) {
+            stats.lightsBehind++;
+            return;
+        }
+
+        // Attenuate light (ambient light is not attenuated)
+        double atten = 1;
+        if (light.direction == null) {
+            Vector3d a = light.attenuation;
+            atten = 1 / (a.x + a.y * distance + a.z * distance * distance);
+        }
+
+        // Diffuse component
+        if (diffuse && dotval > 0) {
+            tint.set(1, 1, 1);
+
+            if (atten * diffuseWeight * dotval < minContribution) {
+                // The light is too dim for its shadow to matter
+                stats.lightsDim++;
+            } else {
+                // Find how much of the light gets through (objects
+                // beyond a point light do not cast a shadow -- the ray is
+                // normalized, so t is the distance from the hit point)
+                shadow.origin.set(px, py, pz);
+                shadow.direction.set(lx, ly, lz);
+                bvh.shadowTint(shadow, epsilon, distance, tint,
+                               stack, blocker, local, stats);
+                stats.shadowRays++;
+            }
+
+            double scale = dotval * atten;
+
+            color.x += kdR * scale * tint.x;
+            color.y += kdG * scale * tint.y;
+            color.z += kdB * scale * tint.z;
+        }
+
+        // Specular component: the light reflected about the normal,
+        // against the direction the ray came in from
+        double s = 2 * dotval;
+        double rx = nx * s - lx, ry = ny * s - ly, rz = nz * s - lz;
+        double rdotv = -(rx*dx + ry*dy + rz*dz) /
+                       Math.sqrt(rx*rx + ry*ry + rz*rz);
+        if (rdotv > 0 || shininess == 0) {
+            double highlight = Math.pow(Math.max(0, rdotv), shininess);
+            color.x += ksR * highlight;
+            color.y += ksG * highlight;
+            color.z += ksB * highlight;
+        }
+    }
+}
@@ -26,10 +26,41 @@ abstract class Shape extends RaytracerObject
     // Transpose Inverse of M (just the 3x3 part is transposed)
     Matrix4d MTInverse;
 
+    // Kinds of transformation, from the cheapest to apply to the most
+    // general (an affine matrix)
+    static final int IDENTITY        = 0;
+    static final int TRANSLATE       = 1;
+    static final int SCALE_TRANSLATE = 2;
+    static final int GENERAL         = 3;
+
+    // Kind of M, MInverse and MTInverse (the most general of the three),
+    // set by setMatrix()
+    int transformKind = GENERAL;
+
+    // Object space length of a unit of world space length (along the
+    // direction the object is stretched the most), set by setMatrix()
+    double inverseScale = 1;
+
+    // World space bounds (minX, minY, minZ, maxX, maxY, maxZ), updated
+    // by setMatrix() -- unbounded until then
+    double[] worldBounds = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+			     Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+			     Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+
     // Hierarchical object management
     Vector<Shape> parent = null;
     Vector<Shape> children = new Vector<Shape>();
 
+    /** parameters of every shape */
+    static final HashMap<String, ParamSpec> paramSpecs =
+	paramTable(RaytracerObject.paramSpecs,
+	    new ParamSpec("material") {
+		void read(StreamTokenizer tokenizer, RaytracerObject target)
+		    throws ParseException, IOException {
+		    ((Shape)target).setMaterialName(Parser.readString(tokenizer));
+		}
+	    });
+
     //------------------------------------------------------------------------
 
     /** enforcing the presence of this constructor */
@@ -43,11 +74,18 @@ abstract class Shape extends RaytracerObject
 	M = new Matrix4d();
 	MInverse = new Matrix4d();
 	MTInverse = new Matrix4d();
+    }
 
-	addSpec("material", "setMaterialName",
-		materialName.getClass().getName());
+    /** constructor for a shape that is not read from a file */
+    protected Shape()
+    {
+	M = new Matrix4d();
+	MInverse = new Matrix4d();
+	MTInverse = new Matrix4d();
     }
 
+    HashMap<String, ParamSpec> getParamSpecs() { return paramSpecs; }
+
     //------------------------------------------------------------------------
 
     /** computes the intersection of the ray with the scene and
@@ -62,6 +100,62 @@ abstract class Shape extends RaytracerObject
     abstract boolean hit(Ray r, ISect intersection,
 			 boolean computeAllFields, double minT);
 
+    /** returns the axis-aligned bounds of the object in object space
+     *  (before the transformation M is applied)
+     */
+    abstract void getObjectBounds(Point3d min, Point3d max);
+
+    /** returns how far the texture coordinates (u,v) move along a unit
+     *  of length on the surface, in object space (roughly -- for
+     *  estimating texture footprints)
+     */
+    double getTextureDensity()
+    {
+	// A face of a unit box is 2 units across
+	return 0.5;
+    }
+
+    /** converts the width of a ray hitting the object, in world space,
+     *  to a width in texture coordinates (u,v)
+     */
+    public double textureFootprint(double worldWidth)
+    {
+	return worldWidth * inverseScale * getTextureDensity();
+    }
+
+    /** computes the axis-aligned bounds of the object in world space,
+     *  by transforming the corners of the object space bounds by M
+     */
+    public void getWorldBounds(Point3d min, Point3d max)
+    {
+	Point3d objMin = new Point3d(), objMax = new Point3d();
+	getObjectBounds(objMin, objMax);
+
+	min.set(Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE);
+	max.set(-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE);
+
+	Point3d corner = new Point3d();
+	for (int i = 0; i < 8; i++) {
+	    corner.set((i & 1) == 0 ? objMin.x : objMax.x,
+		       (i & 2) == 0 ? objMin.y : objMax.y,
+		       (i & 4) == 0 ? objMin.z : objMax.z);
+	    M.transform(corner);
+
+	    min.set(Math.min(min.x, corner.x), Math.min(min.y, corner.y),
+		    Math.min(min.z, corner.z));
+	    max.set(Math.max(max.x, corner.x), Math.max(max.y, corner.y),
+		    Math.max(max.z, corner.z));
+	}
+
+	// Pad the bounds a little, so rounding in the transformation never
+	// culls a ray that hit() would find grazing the surface
+	double pad = 1e-9 * (1 + Math.max(Math.max(Math.abs(min.x), Math.abs(max.x)),
+				  Math.max(Math.max(Math.abs(min.y), Math.abs(max.y)),
+					   Math.max(Math.abs(min.z), Math.abs(max.z)))));
+	min.set(min.x - pad, min.y - pad, min.z - pad);
+	max.set(max.x + pad, max.y + pad, max.z + pad);
+    }
+
     // -----------------------------------------------------------------------
 
     public String   getMaterialName() { return materialName; }
@@ -74,7 +168,9 @@ abstract class Shape extends RaytracerObject
     public void setMaterialName(String newName) { materialName = newName; }
     public void setMaterialRef(Material newRef) { materialRef = newRef; }
 
-    /** set the object transformation, and compute inverse */
+    /** set the object transformation, and compute inverse (and the
+     *  world space bounds)
+     */
     public void setMatrix(Matrix4d mat)
     {
 	M.set(mat);
@@ -90,6 +186,108 @@ abstract class Shape extends RaytracerObject
 	Vector3d translation = new Vector3d();
 	MInverse.get(translation);
 	MTInverse.set(invRS, translation, 1.0);
+
+	transformKind = Math.max(classify(M),
+				 Math.max(classify(MInverse), classify(MTInverse)));
+
+	// (The rows of MInverse are scaled by the inverse of the scale along
+	// each object axis; use the smallest, as a surface is usually
+	// stretched the most along it -- for a thin box, say)
+	inverseScale = Math.min(rowLength(MInverse, 0),
+				Math.min(rowLength(MInverse, 1), rowLength(MInverse, 2)));
+
+	Point3d min = new Point3d(), max = new Point3d();
+	getWorldBounds(min, max);
+	worldBounds = new double[] { min.x, min.y, min.z, max.x, max.y, max.z };
+    }
+
+    /** length of row i of the 3x3 part of m */
+    private static double rowLength(Matrix4d m, int i)
+    {
+	double x = m.getElement(i, 0), y = m.getElement(i, 1), z = m.getElement(i, 2);
+	return Math.sqrt(x*x + y*y + z*z);
+    }
+
+    /** which kind of transformation m is (the specialized versions of
+     *  the transformations below give the same result as m.transform(),
+     *  since the terms they skip are all zero)
+     */
+    static int classify(Matrix4d m)
+    {
+	if (m.m30 != 0 || m.m31 != 0 || m.m32 != 0 || m.m33 != 1 ||
+	    m.m01 != 0 || m.m02 != 0 || m.m10 != 0 ||
+	    m.m12 != 0 || m.m20 != 0 || m.m21 != 0)
+	  return GENERAL;
+	if (m.m00 != 1 || m.m11 != 1 || m.m22 != 1)
+	  return SCALE_TRANSLATE;
+	if (m.m03 != 0 || m.m13 != 0 || m.m23 != 0)
+	  return TRANSLATE;
+	return IDENTITY;
+    }
+
+    /** returns ray r in object space: either r itself (when there is
+     *  nothing to transform), or scratch set to the transformed ray
+     */
+    public Ray rayToObject(Ray r, Ray scratch)
+    {
+	Point3d  o = r.origin;
+	Vector3d d = r.direction;
+	Matrix4d m = MInverse;
+
+	switch (transformKind) {
+	case IDENTITY:
+	    return r;
+	case TRANSLATE:
+	    scratch.origin.set(o.x + m.m03, o.y + m.m13, o.z + m.m23);
+	    scratch.direction.set(d);
+	    break;
+	case SCALE_TRANSLATE:
+	    scratch.origin.set(m.m00*o.x + m.m03, m.m11*o.y + m.m13,
+			       m.m22*o.z + m.m23);
+	    scratch.direction.set(m.m00*d.x, m.m11*d.y, m.m22*d.z);
+	    break;
+	default:
+	    scratch.origin.set(o);
+	    scratch.direction.set(d);
+	    m.transform(scratch.origin);
+	    m.transform(scratch.direction);
+	}
+
+	return scratch;
+    }
+
+    /** transform a point from object space to world space (by M) */
+    public void pointToWorld(Point3d p)
+    {
+	switch (transformKind) {
+	case IDENTITY:
+	    break;
+	case TRANSLATE:
+	    p.set(p.x + M.m03, p.y + M.m13, p.z + M.m23);
+	    break;
+	case SCALE_TRANSLATE:
+	    p.set(M.m00*p.x + M.m03, M.m11*p.y + M.m13, M.m22*p.z + M.m23);
+	    break;
+	default:
+	    M.transform(p);
+	}
+    }
+
+    /** transform a normal from object space to world space (by
+     *  MTInverse -- it is not normalized)
+     */
+    public void normalToWorld(Vector3d n)
+    {
+	switch (transformKind) {
+	case IDENTITY:
+	case TRANSLATE:
+	    break;
+	case SCALE_TRANSLATE:
+	    n.set(MTInverse.m00*n.x, MTInverse.m11*n.y, MTInverse.m22*n.z);
+	    break;
+	default:
+	    MTInverse.transform(n);
+	}
     }
 
     public void print(PrintStream out)
@@ -0,0 +1,153 @@
+import static org.junit.Assert.*;
+
+import java.io.StreamTokenizer;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+
+import javax.vecmath.AxisAngle4d;
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+
+public class ShapeTest {
+	static final double tolerance = 1e-9;
+
+	StreamTokenizer emptyBody() {
+		return new StreamTokenizer(new StringReader("{ }"));
+	}
+
+	/** ray from (x,y,z) along (dx,dy,dz), not normalized */
+	Ray ray(double x, double y, double z, double dx, double dy, double dz) {
+		return new Ray(new Point3d(x, y, z), new Vector3d(dx, dy, dz));
+	}
+
+	void assertHit(Shape s, Ray r, double t, Vector3d normal) {
+		Ray original = new Ray(r);
+		ISect isect = new ISect();
+
+		assertTrue(s.hit(r, isect, true, 1e-5));
+		assertSame(s, isect.getHitObject());
+		assertEquals(t, isect.getT(), tolerance);
+		assertTrue(normal.epsilonEquals(isect.getNormal(), tolerance));
+
+		// The hit point is at t along the (unnormalized) ray
+		Point3d expected = new Point3d(original.direction);
+		expected.scaleAdd(t, original.origin);
+		assertTrue(expected.epsilonEquals(isect.getHitPoint(), tolerance));
+
+		// The ray is left alone
+		assertEquals(original.origin, r.origin);
+		assertEquals(original.direction, r.direction);
+	}
+
+	@Test
+	public void testSphere() throws Exception {
+		Shape s = new Sphere(emptyBody());
+		assertHit(s, ray(0, 0, 5, 0, 0, -1), 4, new Vector3d(0, 0, 1));
+		assertHit(s, ray(0, 0, 5, 0, 0, -2), 2, new Vector3d(0, 0, 1));
+		// From inside
+		assertHit(s, ray(0, 0, 0, 1, 0, 0), 1, new Vector3d(1, 0, 0));
+		assertFalse(s.hit(ray(0, 2, 5, 0, 0, -1), new ISect(), true, 1e-5));
+	}
+
+	@Test
+	public void testBox() throws Exception {
+		Shape s = new Box(emptyBody());
+		assertHit(s, ray(0.5, 0.5, 5, 0, 0, -1), 4, new Vector3d(0, 0, 1));
+		assertHit(s, ray(-3, 0.2, 0.2, 2, 0, 0), 1, new Vector3d(-1, 0, 0));
+		assertFalse(s.hit(ray(1.5, 0, 5, 0, 0, -1), new ISect(), true, 1e-5));
+	}
+
+	@Test
+	public void testCylinder() throws Exception {
+		Shape s = new Cylinder(emptyBody());
+		// Tube, and both caps
+		assertHit(s, ray(0, 5, 0.5, 0, -1, 0), 4, new Vector3d(0, 1, 0));
+		assertHit(s, ray(0.2, 0, -2, 0, 0, 1), 2, new Vector3d(0, 0, -1));
+		assertHit(s, ray(0.2, 0, 3, 0, 0, -1), 2, new Vector3d(0, 0, 1));
+		assertFalse(s.hit(ray(0, 5, 1.5, 0, -1, 0), new ISect(), true, 1e-5));
+	}
+
+	@Test
+	public void testCone() throws Exception {
+		Shape s = new Cone(emptyBody());
+		// Base, and the side at z = 0.5 (radius 0.5)
+		assertHit(s, ray(0.2, 0, 3, 0, 0, -1), 2, new Vector3d(0, 0, 1));
+		double n = Math.sqrt(0.5);
+		assertHit(s, ray(0, 5, 0.5, 0, -1, 0), 4.5, new Vector3d(0, n, -n));
+		assertFalse(s.hit(ray(0, 5, 1.5, 0, -1, 0), new ISect(), true, 1e-5));
+	}
+
+	@Test
+	public void testHitDoesNotAllocate() throws Exception {
+		Shape[] shapes = { new Sphere(emptyBody()), new Box(emptyBody()),
+				new Cylinder(emptyBody()), new Cone(emptyBody()) };
+		Ray r = ray(0.1, 0.2, 5, 0, 0, -1);
+		ISect isect = new ISect();
+
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+		long thread = Thread.currentThread().getId();
+
+		for (Shape s : shapes) {
+			long before = threads.getThreadAllocatedBytes(thread);
+			for (int i = 0; i < 10000; i++) {
+				s.hit(r, isect, true, 1e-5);
+				s.hit(r, isect, false, 1e-5);
+			}
+			long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+			// Allow for the measurement itself, but not for anything per hit
+			assertTrue(s.getClass().getName() + " allocated " + allocated + " bytes",
+					allocated < 10000);
+		}
+	}
+
+	@Test
+	public void testSpecializedTransformsMatchMatrices() throws Exception {
+		Matrix4d identity = new Matrix4d();
+		identity.setIdentity();
+		Matrix4d translate = new Matrix4d(identity);
+		translate.setTranslation(new Vector3d(1.5, -2, 0.25));
+		Matrix4d scale = new Matrix4d(translate);
+		scale.m00 = 2;
+		scale.m11 = 0.5;
+		scale.m22 = 3;
+		Matrix4d rotate = new Matrix4d(scale);
+		Matrix4d rotation = new Matrix4d(identity);
+		rotation.setRotation(new AxisAngle4d(new Vector3d(1, 1, 0), 0.3));
+		rotate.mul(rotation);
+
+		Matrix4d[] matrices = { identity, translate, scale, rotate };
+		int[] kinds = { Shape.IDENTITY, Shape.TRANSLATE, Shape.SCALE_TRANSLATE, Shape.GENERAL };
+
+		Ray r = ray(0.3, -0.7, 4, -0.1, 0.2, -1);
+		for (int k = 0; k < matrices.length; k++) {
+			Shape s = new Sphere(emptyBody());
+			s.setMatrix(matrices[k]);
+			assertEquals(kinds[k], s.transformKind);
+
+			Ray expected = new Ray(r);
+			s.getInvMatrix().transform(expected.origin);
+			s.getInvMatrix().transform(expected.direction);
+			Ray local = s.rayToObject(r, new Ray());
+			assertEquals(expected.origin, local.origin);
+			assertEquals(expected.direction, local.direction);
+
+			Point3d p = new Point3d(0.6, 0, 0.8), expectedP = new Point3d(p);
+			s.getMatrix().transform(expectedP);
+			s.pointToWorld(p);
+			assertEquals(expectedP, p);
+
+			Vector3d n = new Vector3d(0.6, 0, 0.8), expectedN = new Vector3d(n);
+			s.getInvTMatrix().transform(expectedN);
+			s.normalToWorld(n);
+			assertEquals(expectedN, n);
+		}
+	}
+}
@@ -23,6 +23,11 @@ class Sphere extends Shape
 	read(tokenizer);
     }
 
+    /** constructor for a sphere that is not read from a file */
+    public Sphere()
+    {
+    }
+
     // -----------------------------------------------------------------------
 
     /** computes the ray intersection point of a sphere at the origin with
@@ -30,13 +35,16 @@ class Sphere extends Shape
      */
     boolean hit(Ray r, ISect intersection, boolean all, double minT)
     {
-	double dirLength = r.getDirection().length();
-	r.getDirection().normalize();
+	// Normalized ray direction (r itself is left alone)
+	Vector3d rd = r.getDirection();
+	double dirLength = Math.sqrt(rd.x*rd.x + rd.y*rd.y + rd.z*rd.z);
+	double norm = 1.0/dirLength;
+	double dx = rd.x*norm, dy = rd.y*norm, dz = rd.z*norm;
 	minT *= dirLength;
-	Vector3d v = new Vector3d(r.getPoint());
 
-	double b   = -v.dot(r.getDirection());
-	double d   = b*b - v.lengthSquared()+1;
+	Point3d v = r.getPoint();
+	double b   = -(v.x*dx + v.y*dy + v.z*dz);
+	double d   = b*b - (v.x*v.x + v.y*v.y + v.z*v.z)+1;
 
 	if (d<0.0) return false;
 
@@ -52,9 +60,9 @@ class Sphere extends Shape
 	if (all) {
 	    Point3d hitPoint = intersection.getHitPoint();
 
-	    hitPoint.set(r.getDirection());
-	    hitPoint.scale(intersection.t);
-	    hitPoint.add(r.getPoint());
+	    hitPoint.set(dx*intersection.t + v.x,
+			 dy*intersection.t + v.y,
+			 dz*intersection.t + v.z);
 	    
 	    intersection.getNormal().set(hitPoint);
 	    intersection.getNormal().normalize();
@@ -67,6 +75,19 @@ class Sphere extends Shape
 	return true;
     }
 
+    /** the sphere fits in the cube [-1, 1]^3 */
+    void getObjectBounds(Point3d min, Point3d max)
+    {
+	min.set(-1, -1, -1);
+	max.set(1, 1, 1);
+    }
+
+    double getTextureDensity()
+    {
+	// v runs from pole to pole, half way around the unit sphere
+	return 1 / Math.PI;
+    }
+
     private void uvSphere(ISect intersection)
     {
 	double phi, epsilon = 1e-6;
@@ -103,8 +124,11 @@ class Sphere extends Shape
 	intersection.getDpDu().set(-ipoint.y, ipoint.x, 0);
 	intersection.getDpDu().normalize();
 	
-	intersection.getDpDv().cross(new Vector3d(ipoint),
-				     intersection.getDpDu());
+	// dPdV = ipoint x dPdU
+	Vector3d dPdU = intersection.getDpDu();
+	intersection.getDpDv().set(ipoint.y*dPdU.z - ipoint.z*dPdU.y,
+				   dPdU.x*ipoint.z - dPdU.z*ipoint.x,
+				   ipoint.x*dPdU.y - ipoint.y*dPdU.x);
 	intersection.getDpDv().normalize();
     }
 }
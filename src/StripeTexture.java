@@ -0,0 +1,26 @@
+/* class StripeTexture
+ * Procedural stripes of two colors, running along u
+ */
+import javax.vecmath.*;
+
+final class StripeTexture extends Texture
+{
+    final double r1, g1, b1;
+    final double r2, g2, b2;
+    final double scaleV;
+
+    public StripeTexture(Tuple3d color1, Tuple3d color2, double scaleV)
+    {
+        r1 = color1.x; g1 = color1.y; b1 = color1.z;
+        r2 = color2.x; g2 = color2.y; b2 = color2.z;
+        this.scaleV = scaleV;
+    }
+
+    void color(double u, double v, double footprint, Tuple3d target)
+    {
+        if ((int)(Math.floor(v * scaleV)) % 2 == 0)
+          target.set(r1, g1, b1);
+        else
+          target.set(r2, g2, b2);
+    }
+}
@@ -0,0 +1,19 @@
+/* class Texture
+ * The texture of a material, compiled from its specification: gives the
+ * color of the surface at (u,v)
+ *
+ * Material.setup() picks one of the (final) implementations, so shading
+ * calls it directly instead of looking up the texture type for every
+ * sample.  Textures never change once made, so they can be shared by
+ * any number of threads.
+ */
+import javax.vecmath.*;
+
+abstract class Texture
+{
+    /** put the color at (u,v) in target, for a sample that covers
+     *  footprint (in u, v units)
+     */
+    abstract void color(double u, double v, double footprint,
+                        Tuple3d target);
+}
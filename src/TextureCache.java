@@ -0,0 +1,162 @@
+/* class TextureCache
+ * Process-wide cache of texture images, so materials that use the same
+ * texture file share one copy of it
+ *
+ * Entries are keyed by the canonical path and modification time of the
+ * file, and count the materials holding them.  Entries no material
+ * holds any more are kept for later scenes, and evicted (least recently
+ * used first) once the textures take up more than the memory budget.
+ */
+import java.io.*;
+import java.util.*;
+
+class TextureCache
+{
+    /** a loaded texture, and the number of holders it has */
+    static class Entry
+    {
+        String     key;
+        String     path;
+        MipTexture texture;
+        long       bytes;
+        int        references = 0;
+    }
+
+    // Entries in least to most recently used order
+    static LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    // Memory budget for the textures, in bytes
+    static long budget = Long.MAX_VALUE;
+
+    // Statistics
+    static int  loads      = 0;
+    static int  hits       = 0;
+    static int  evictions  = 0;
+    static long bytesHeld  = 0;
+
+    //------------------------------------------------------------------------
+
+    /** returns the texture in a file (loading it, unless it is already
+     *  in the cache), and counts the caller as a holder of it
+     */
+    public static synchronized MipTexture acquire(String fileName,
+                                                  boolean verbose)
+        throws IOException
+    {
+        File file = new File(fileName);
+        if (!file.isFile())
+          throw new FileNotFoundException(fileName);
+
+        String path = file.getCanonicalPath();
+        String key  = path + "@" + file.lastModified();
+
+        Entry e = entries.get(key);
+        if (e != null) {
+            hits++;
+            if (verbose)
+              System.out.println("Reusing texture " + fileName);
+        } else {
+            if (verbose)
+              System.out.println("Loading texture " + fileName);
+
+            // Older versions of the file are not going to be asked for
+            dropUnused(path);
+
+            e = new Entry();
+            e.key     = key;
+            e.path    = path;
+            e.texture = new MipTexture(new RGBImage(fileName));
+            e.bytes   = e.texture.getBytes();
+            entries.put(key, e);
+
+            loads++;
+            bytesHeld += e.bytes;
+        }
+
+        e.references++;
+        evict();
+
+        return e.texture;
+    }
+
+    /** the caller no longer holds texture (which then stays in the cache
+     *  until it is evicted)
+     */
+    public static synchronized void release(MipTexture texture)
+    {
+        for (Entry e : entries.values()) {
+            if (e.texture == texture) {
+                if (e.references > 0)
+                  e.references--;
+                break;
+            }
+        }
+
+        evict();
+    }
+
+    /** set the memory budget (in bytes) for textures, evicting unused
+     *  ones until they fit (textures in use are never evicted)
+     */
+    public static synchronized void setBudget(long bytes)
+    {
+        budget = bytes;
+        evict();
+    }
+
+    /** forget all textures, and the statistics */
+    public static synchronized void clear()
+    {
+        entries.clear();
+        loads = hits = evictions = 0;
+        bytesHeld = 0;
+    }
+
+    //------------------------------------------------------------------------
+
+    /** evict unused textures, least recently used first, while over the
+     *  budget
+     */
+    private static void evict()
+    {
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytesHeld > budget && it.hasNext()) {
+            Entry e = it.next();
+            if (e.references == 0) {
+                it.remove();
+                bytesHeld -= e.bytes;
+                evictions++;
+            }
+        }
+    }
+
+    /** remove unused entries for a file */
+    private static void dropUnused(String path)
+    {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (e.references == 0 && e.path.equals(path)) {
+                it.remove();
+                bytesHeld -= e.bytes;
+            }
+        }
+    }
+
+    //------------------------------------------------------------------------
+
+    public static synchronized int  getLoads()     { return loads; }
+    public static synchronized int  getHits()      { return hits; }
+    public static synchronized int  getEvictions() { return evictions; }
+    public static synchronized long getBytesHeld() { return bytesHeld; }
+    public static synchronized int  size()         { return entries.size(); }
+
+    /** a one line summary of the cache statistics */
+    public static synchronized String summary()
+    {
+        return String.format("Textures: %d loaded, %d reused, %d evicted, " +
+                             "%d held (%.1f MB)", loads, hits, evictions,
+                             entries.size(), bytesHeld / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,88 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class TextureCacheTest {
+
+	@Before
+	public void setUp() {
+		TextureCache.clear();
+		TextureCache.setBudget(Long.MAX_VALUE);
+	}
+
+	File texture(int width, int height) throws Exception {
+		RGBImage image = new RGBImage(width, height);
+		image.setPixel(0, 0, new Vector3d(1, 0.5, 0));
+
+		File file = File.createTempFile("texture", ".ppm");
+		image.write(file.getPath());
+		return file;
+	}
+
+	@Test
+	public void testSameFileIsLoadedOnce() throws Exception {
+		File file = texture(4, 4);
+		try {
+			MipTexture a = TextureCache.acquire(file.getPath(), false);
+			// (a different path to the same file)
+			MipTexture b = TextureCache.acquire(
+					new File(file.getParentFile(), "./" + file.getName()).getPath(), false);
+
+			assertSame(a, b);
+			assertEquals(1, TextureCache.getLoads());
+			assertEquals(1, TextureCache.getHits());
+			assertEquals(a.getBytes(), TextureCache.getBytesHeld());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testChangedFileIsReloaded() throws Exception {
+		File file = texture(4, 4);
+		try {
+			MipTexture a = TextureCache.acquire(file.getPath(), false);
+			TextureCache.release(a);
+			file.setLastModified(file.lastModified() - 10000);
+			MipTexture b = TextureCache.acquire(file.getPath(), false);
+
+			assertNotSame(a, b);
+			assertEquals(2, TextureCache.getLoads());
+			// The old version is dropped, as nothing uses it
+			assertEquals(1, TextureCache.size());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testOnlyUnusedTexturesAreEvicted() throws Exception {
+		File first = texture(8, 8), second = texture(8, 8);
+		try {
+			MipTexture a = TextureCache.acquire(first.getPath(), false);
+			MipTexture b = TextureCache.acquire(second.getPath(), false);
+
+			// Over budget, but both are in use
+			TextureCache.setBudget(a.getBytes());
+			assertEquals(2, TextureCache.size());
+
+			// Once released, the unused one goes (a is still held once)
+			TextureCache.acquire(first.getPath(), false);
+			TextureCache.release(b);
+			TextureCache.release(a);
+			assertEquals(1, TextureCache.size());
+			assertEquals(1, TextureCache.getEvictions());
+			assertSame(a, TextureCache.acquire(first.getPath(), false));
+			assertEquals(2, TextureCache.getLoads());
+		} finally {
+			first.delete();
+			second.delete();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+import static org.junit.Assert.*;
+
+import javax.vecmath.Vector3d;
+
+import org.junit.Test;
+
+
+public class TextureTest {
+	static final Vector3d red = new Vector3d(1, 0, 0);
+	static final Vector3d green = new Vector3d(0, 1, 0);
+
+	@Test
+	public void testProceduralTextures() {
+		Vector3d color = new Vector3d();
+
+		Texture checker = new CheckerTexture(red, green, 4, 2);
+		checker.color(0.1, 0.1, 0, color);
+		assertEquals(red, color);
+		checker.color(0.3, 0.1, 0, color);
+		assertEquals(green, color);
+		checker.color(0.3, 0.6, 0, color);
+		assertEquals(red, color);
+
+		// Stripes only depend on v
+		Texture stripe = new StripeTexture(red, green, 2);
+		stripe.color(0.9, 0.1, 0, color);
+		assertEquals(red, color);
+		stripe.color(0.1, 0.6, 0, color);
+		assertEquals(green, color);
+
+		// Odd columns have cells half as tall, with the colors swapped
+		Texture hex = new HexTexture(red, green, 2, 2);
+		hex.color(0, 0.1, 0, color);
+		assertEquals(red, color);
+		hex.color(0.5, 0.1, 0, color);
+		assertEquals(green, color);
+		hex.color(0.5, 0.3, 0, color);
+		assertEquals(red, color);
+	}
+
+	@Test
+	public void testMaterialsAreCompiled() throws Exception {
+		Scene s = SceneTest.scene(
+			"material { name = plain kd = (0.5 0.5 0.5) }\n" +
+			"material { name = board checker = (1 0 0) (0 1 0) 4 2 }\n" +
+			"material { name = lines stripe = (1 0 0) (0 1 0) 1 2 }\n" +
+			"material { name = cells hexagonal = (1 0 0) (0 1 0) 2 2 }\n");
+
+		assertNull(s.getMaterial("plain").texture);
+		assertFalse(s.getMaterial("plain").hasTexture());
+		assertTrue(s.getMaterial("board").texture instanceof CheckerTexture);
+		assertTrue(s.getMaterial("lines").texture instanceof StripeTexture);
+		assertTrue(s.getMaterial("cells").texture instanceof HexTexture);
+
+		assertEquals(green, s.getMaterial("board").getTextureColor(0.3, 0.1));
+
+		// Released materials no longer have a texture
+		s.release();
+		assertFalse(s.getMaterial("board").hasTexture());
+	}
+}
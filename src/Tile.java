@@ -0,0 +1,57 @@
+/* class Tile
+ * A rectangular block of pixels that is rendered as one unit of work
+ * (tiles are independent, so they can be rendered on separate threads)
+ */
+class Tile
+{
+    // Pixel bounds of the tile: [x0, x1) x [y0, y1)
+    int x0, y0, x1, y1;
+
+    //------------------------------------------------------------------------
+
+    public Tile(int newX0, int newY0, int newX1, int newY1)
+    {
+        x0 = newX0;
+        y0 = newY0;
+        x1 = newX1;
+        y1 = newY1;
+    }
+
+    /** split a width X height image into tiles of (at most) size X size */
+    public static Tile[] split(int width, int height, int size)
+    {
+        return split(0, 0, width, height, size);
+    }
+
+    /** split the pixels [x0, x1) x [y0, y1) into tiles of (at most)
+     *  size X size
+     */
+    public static Tile[] split(int x0, int y0, int x1, int y1, int size)
+    {
+        int tilesX = (x1 - x0 + size - 1) / size;
+        int tilesY = (y1 - y0 + size - 1) / size;
+
+        Tile[] tiles = new Tile[tilesX * tilesY];
+        int k = 0;
+        for (int tx = 0; tx < tilesX; tx++) {
+            for (int ty = 0; ty < tilesY; ty++) {
+                int tx0 = x0 + tx * size, ty0 = y0 + ty * size;
+                tiles[k++] = new Tile(tx0, ty0, Math.min(tx0 + size, x1),
+                                      Math.min(ty0 + size, y1));
+            }
+        }
+
+        return tiles;
+    }
+
+    //------------------------------------------------------------------------
+    // accessors
+
+    public int getWidth()  { return x1 - x0; }
+    public int getHeight() { return y1 - y0; }
+
+    public String toString()
+    {
+        return "Tile [" + x0 + ", " + x1 + ") x [" + y0 + ", " + y1 + ")";
+    }
+}
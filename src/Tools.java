@@ -18,6 +18,12 @@ class Tools
 	target.z *= p.z;
     }
 
+    /** Largest component of v */
+    public static double maxComponent(Tuple3d v)
+    {
+	return Math.max(v.x, Math.max(v.y, v.z));
+    }
+
     /** Reflect the incident vector around the normal vector
      *
      *  target = 2 * (normal . incident) * normal - incident
@@ -54,11 +60,12 @@ class Tools
 	/* Total internal reflection */
 	if (cos2T2 < 0.0) return false;
 	
-	Vector3d temp = new Vector3d();
-	temp.scale(eta * cosT1 - Math.sqrt(cos2T2), n);
-	
-	target.scale(eta, in);
-	target.add(temp);
+	double s = eta * cosT1 - Math.sqrt(cos2T2);
+
+	// target = eta * in + s * n (in and target may be the same vector)
+	target.set(eta * in.x + s * n.x,
+		   eta * in.y + s * n.y,
+		   eta * in.z + s * n.z);
 	return true;
     }
 }
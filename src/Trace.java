@@ -11,6 +11,18 @@ class Trace
 {
 	static boolean adaptive = false;
     static boolean verbose = true;
+    static int threads = 1;
+    static boolean stream = false;
+    static int depth = -1;
+    static double cutoff = -1;
+    static boolean roulette = false;
+    static double lightCutoff = -1;
+    static String compiledFileName = null;
+    static String statsFileName = null;
+    static int costMeasure = CostMap.NONE;
+    static long budget = -1;
+    static int pixelOrder = -1;
+    static int packetSize = 0;
 
     public static void main(String arguments[])
     {
@@ -36,6 +48,30 @@ class Trace
                     verbose = false;
                 } else if (arguments[i].compareTo("-adaptive")==0) {
                 	adaptive = true;
+                } else if (arguments[i].compareTo("-threads")==0) {
+                    threads = Integer.parseInt(arguments[++i]);
+                } else if (arguments[i].compareTo("-stream")==0) {
+                    stream = true;
+                } else if (arguments[i].compareTo("-depth")==0) {
+                    depth = Integer.parseInt(arguments[++i]);
+                } else if (arguments[i].compareTo("-cutoff")==0) {
+                    cutoff = Double.parseDouble(arguments[++i]);
+                } else if (arguments[i].compareTo("-roulette")==0) {
+                    roulette = true;
+                } else if (arguments[i].compareTo("-lightcutoff")==0) {
+                    lightCutoff = Double.parseDouble(arguments[++i]);
+                } else if (arguments[i].compareTo("-compile")==0) {
+                    compiledFileName = arguments[++i];
+                } else if (arguments[i].compareTo("-stats")==0) {
+                    statsFileName = arguments[++i];
+                } else if (arguments[i].compareTo("-heatmap")==0) {
+                    costMeasure = CostMap.measureNamed(arguments[++i]);
+                } else if (arguments[i].compareTo("-budget")==0) {
+                    budget = Long.parseLong(arguments[++i]);
+                } else if (arguments[i].compareTo("-order")==0) {
+                    pixelOrder = PixelOrder.named(arguments[++i]);
+                } else if (arguments[i].compareTo("-packets")==0) {
+                    packetSize = Integer.parseInt(arguments[++i]);
                 } else if (arguments[i].charAt(0) == '-') {
                     printUsage();
                     System.exit(0);
@@ -47,22 +83,72 @@ class Trace
             try {
                 Scene s = new Scene();
                 Parser p = new Parser(s);
+
+                // Ray tree options (negative means keep the default)
+                if (depth >= 0)
+                  s.recursionDepth = depth;
+                if (cutoff >= 0)
+                  s.minRayWeight = cutoff;
+                s.russianRoulette = roulette;
+                if (lightCutoff >= 0)
+                  s.minLightContribution = lightCutoff;
+                s.costMeasure = costMeasure;
+                if (pixelOrder >= 0)
+                  s.pixelOrder = pixelOrder;
+                s.packetSize = packetSize;
 		
-                // Parse scene file
-                p.readFile(inputFileName);
+                // Parse scene file (or load a compiled one)
+                long loadTime = System.currentTimeMillis();
+                if (CompiledScene.isCompiled(inputFileName))
+                  CompiledScene.read(inputFileName, s);
+                else
+                  p.readFile(inputFileName);
+                if (verbose)
+                  System.out.println(String.format("Loading took: %d ms", System.currentTimeMillis() - loadTime));
+
+                if (compiledFileName != null) {
+                    // Save the parsed scene instead of rendering it
+                    CompiledScene.write(s, compiledFileName);
+                    System.out.println("Compiled scene written to " +
+                                       compiledFileName);
+                    return;
+                }
 		
                 // Set up the scene
                 s.setup();
 		
                 long startTime = System.currentTimeMillis();
                 
-                // Render the image
-                RGBImage i = s.render(width, height, verbose, adaptive);
-                
-                System.out.println(String.format("Rendering took: %d ms", System.currentTimeMillis() - startTime));
-		
-                // Save the image
-                i.write(outputFileName);
+                if (budget >= 0) {
+                    // Render progressively until the time is up, and save
+                    // what there is by then
+                    RGBImage i = s.renderProgressive(width, height, verbose,
+                                                     adaptive, threads, budget);
+
+                    System.out.println(String.format("Rendering took: %d ms", System.currentTimeMillis() - startTime));
+                    writeStats(s, inputFileName, width, height, startTime);
+
+                    i.write(outputFileName);
+                    writeCostMap(s, outputFileName);
+                } else if (stream) {
+                    // Render the image straight into the output file
+                    s.renderToFile(width, height, verbose, adaptive, threads,
+                                   outputFileName);
+
+                    System.out.println(String.format("Rendering took: %d ms", System.currentTimeMillis() - startTime));
+                    writeStats(s, inputFileName, width, height, startTime);
+                    writeCostMap(s, outputFileName);
+                } else {
+                    // Render the image
+                    RGBImage i = s.render(width, height, verbose, adaptive, threads);
+
+                    System.out.println(String.format("Rendering took: %d ms", System.currentTimeMillis() - startTime));
+                    writeStats(s, inputFileName, width, height, startTime);
+
+                    // Save the image
+                    i.write(outputFileName);
+                    writeCostMap(s, outputFileName);
+                }
             } catch (InvocationTargetException e) {
                 throw e.getTargetException();
             }
@@ -76,10 +162,45 @@ class Trace
         }
     }
     
+    /** write the counts for the frame just rendered, if asked to */
+    private static void writeStats(Scene s, String inputFileName, int width,
+                                   int height, long startTime)
+        throws java.io.IOException
+    {
+        if (statsFileName == null)
+          return;
+
+        s.frameStats.write(statsFileName, inputFileName, width, height,
+                           threads, adaptive,
+                           System.currentTimeMillis() - startTime);
+        if (verbose)
+          System.out.println("Statistics written to " + statsFileName);
+    }
+
+    /** save the cost of each pixel next to the image, if it was measured */
+    private static void writeCostMap(Scene s, String outputFileName)
+    {
+        if (s.costMap == null)
+          return;
+
+        String fileName = CostMap.fileNameFor(outputFileName);
+        s.costMap.write(fileName);
+        if (verbose)
+          System.out.println("Cost map written to " + fileName);
+    }
+
     private static void printUsage()
     {
         System.out.println("Usage: ");
         System.out.println("java Trace <fileName> [-res <width height>] "+
-                           " [-out <outputFileName>] [-quiet] ");
+                           " [-out <outputFileName>] [-quiet] [-adaptive]"+
+                           " [-threads <n>] [-stream] [-depth <n>]"+
+                           " [-cutoff <weight>] [-roulette]"+
+                           " [-lightcutoff <amount>]"+
+                           " [-compile <compiledFileName>]"+
+                           " [-stats <statsFileName>]"+
+                           " [-heatmap <rays|time>] [-budget <ms>]"+
+                           " [-order <columns|scanline|tiled|morton|hilbert>]"+
+                           " [-packets <n>]");
     }
 }